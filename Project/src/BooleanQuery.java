@@ -0,0 +1,422 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * Query line combining words with the operators {@code AND}, {@code OR} and
+ * {@code NOT} and grouped with parentheses, for example
+ * {@code (cat OR dog) AND NOT fish}. Operators must be written in capitals, so
+ * lines without them keep their usual meaning. {@code NOT} binds tightest,
+ * then {@code AND}, then {@code OR}, and words written next to each other
+ * without an operator are joined with {@code OR} like a plain query line.
+ *
+ * The line is compiled to a tree of {@link Node} objects whose leaves are the
+ * stemmed words. Only the documents containing at least one word that is not
+ * excluded by {@code NOT} are listed, so a query made only of exclusions
+ * matches nothing.
+ *
+ * @author EricChen
+ */
+public class BooleanQuery {
+
+	/** Regular expression that matches a parenthesis or a run of other non-space characters **/
+	public static final Pattern TOKEN_REGEX = Pattern.compile("[()]|[^\\s()]+");
+
+	/** Root of the operator tree */
+	private final Node root;
+
+	/** Stemmed words of the query, including the excluded words */
+	private final TreeSet<String> terms;
+
+	/** Tokens of the line being parsed, only used while parsing */
+	private final List<String> tokens;
+
+	/** Position of the next token to parse, only used while parsing */
+	private int next;
+
+	/**
+	 * Constructor for the boolean query
+	 *
+	 * @param root	root of the operator tree
+	 */
+	public BooleanQuery(Node root) {
+		this.root = root;
+		this.terms = new TreeSet<>();
+		this.tokens = null;
+		collect(root, terms);
+	}
+
+	/**
+	 * Constructor used while parsing
+	 *
+	 * @param tokens	tokens of the line
+	 */
+	private BooleanQuery(List<String> tokens) {
+		this.root = null;
+		this.terms = null;
+		this.tokens = tokens;
+		this.next = 0;
+	}
+
+	/**
+	 * Parses and stems the line if it uses boolean operators or parentheses
+	 *
+	 * @param line	query line
+	 * @param stemmer	the stemmer to use
+	 * @return the boolean query, or null if the line has no operators, is not well formed, or has no words
+	 */
+	public static BooleanQuery parse(String line, Stemmer stemmer) {
+		List<String> tokens = new ArrayList<>();
+		boolean operators = false;
+		Matcher matcher = TOKEN_REGEX.matcher(line);
+		while (matcher.find()) {
+			String token = matcher.group();
+			boolean operator = isOperator(token) || token.equals("(") || token.equals(")");
+			if (operator || TextParser.parse(token).length > 0) {
+				tokens.add(token);
+			}
+			operators |= operator;
+		}
+		if (!operators) {
+			return null;
+		}
+
+		BooleanQuery parser = new BooleanQuery(tokens);
+		Node root = parser.parseOr(stemmer);
+		if (root == null || parser.next < tokens.size()) {
+			return null;
+		}
+		return new BooleanQuery(root);
+	}
+
+	/**
+	 * Returns whether the token is one of the operators
+	 *
+	 * @param token	the token to check
+	 * @return whether the token is AND, OR or NOT
+	 */
+	private static boolean isOperator(String token) {
+		return token.equals("AND") || token.equals("OR") || token.equals("NOT");
+	}
+
+	/**
+	 * Parses terms joined by OR or written next to each other
+	 *
+	 * @param stemmer	the stemmer to use
+	 * @return the parsed node, or null if there was nothing to parse
+	 */
+	private Node parseOr(Stemmer stemmer) {
+		List<Node> children = new ArrayList<>();
+		while (next < tokens.size() && !tokens.get(next).equals(")")) {
+			if (tokens.get(next).equals("OR")) {
+				next++;
+				continue;
+			}
+			Node child = parseAnd(stemmer);
+			if (child == null) {
+				return null;
+			}
+			children.add(child);
+		}
+		return join(children, false);
+	}
+
+	/**
+	 * Parses terms joined by AND
+	 *
+	 * @param stemmer	the stemmer to use
+	 * @return the parsed node, or null if the tokens are not well formed
+	 */
+	private Node parseAnd(Stemmer stemmer) {
+		List<Node> children = new ArrayList<>();
+		Node child = parseNot(stemmer);
+		if (child == null) {
+			return null;
+		}
+		children.add(child);
+		while (next < tokens.size() && tokens.get(next).equals("AND")) {
+			next++;
+			child = parseNot(stemmer);
+			if (child == null) {
+				return null;
+			}
+			children.add(child);
+		}
+		return join(children, true);
+	}
+
+	/**
+	 * Parses a word, a group in parentheses, or either one excluded by NOT
+	 *
+	 * @param stemmer	the stemmer to use
+	 * @return the parsed node, or null if the tokens are not well formed
+	 */
+	private Node parseNot(Stemmer stemmer) {
+		if (next >= tokens.size()) {
+			return null;
+		}
+		String token = tokens.get(next++);
+
+		if (token.equals("NOT")) {
+			Node child = parseNot(stemmer);
+			return child != null ? new Not(child) : null;
+		}
+		if (token.equals("(")) {
+			Node child = parseOr(stemmer);
+			if (child == null || next >= tokens.size()) {
+				return null;
+			}
+			next++;
+			return child;
+		}
+		if (isOperator(token) || token.equals(")")) {
+			return null;
+		}
+
+		List<Node> words = new ArrayList<>();
+		for (String word : TextParser.parse(token)) {
+			words.add(new Term(stemmer.stem(word).toString()));
+		}
+		return join(words, false);
+	}
+
+	/**
+	 * Joins the nodes with an operator, flattening nested nodes of the same operator
+	 *
+	 * @param children	nodes to join
+	 * @param and	whether to join with AND rather than OR
+	 * @return the joined node, the only node if there is one, or null if there are none
+	 */
+	private static Node join(List<Node> children, boolean and) {
+		if (children.isEmpty()) {
+			return null;
+		}
+		if (children.size() == 1) {
+			return children.get(0);
+		}
+		List<Node> flat = new ArrayList<>();
+		for (Node child : children) {
+			if (and && child instanceof And) {
+				flat.addAll(((And) child).getChildren());
+			}
+			else if (!and && child instanceof Or) {
+				flat.addAll(((Or) child).getChildren());
+			}
+			else {
+				flat.add(child);
+			}
+		}
+		return and ? new And(flat) : new Or(flat);
+	}
+
+	/**
+	 * Adds the words of the node and its children to the set
+	 *
+	 * @param node	the node to collect from
+	 * @param terms	set to add the words to
+	 */
+	private static void collect(Node node, TreeSet<String> terms) {
+		if (node instanceof Term) {
+			terms.add(((Term) node).getWord());
+		}
+		else if (node instanceof Not) {
+			collect(((Not) node).getChild(), terms);
+		}
+		else {
+			for (Node child : ((Group) node).getChildren()) {
+				collect(child, terms);
+			}
+		}
+	}
+
+	/**
+	 * Returns the root of the operator tree
+	 *
+	 * @return root node
+	 */
+	public Node getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns the stemmed words of the query, including the excluded words
+	 *
+	 * @return copy of the sorted stemmed words
+	 */
+	public TreeSet<String> getTerms() {
+		return new TreeSet<>(terms);
+	}
+
+	/**
+	 * Returns the key used for this query in the results, with the stemmed words and
+	 * the operators in capitals
+	 */
+	@Override
+	public String toString() {
+		return root.toString();
+	}
+
+	/**
+	 * Node of the operator tree
+	 */
+	public abstract static class Node {
+
+		/**
+		 * Returns the node as it would be written in a query, with parentheses if it
+		 * has to be grouped inside another operator
+		 *
+		 * @return the node in parentheses if needed
+		 */
+		protected String grouped() {
+			return toString();
+		}
+	}
+
+	/**
+	 * Stemmed word that documents must contain
+	 */
+	public static class Term extends Node {
+
+		/** Stemmed word */
+		private final String word;
+
+		/**
+		 * Constructor for the word
+		 *
+		 * @param word	stemmed word
+		 */
+		public Term(String word) {
+			this.word = word;
+		}
+
+		/**
+		 * Returns the stemmed word
+		 *
+		 * @return stemmed word
+		 */
+		public String getWord() {
+			return word;
+		}
+
+		@Override
+		public String toString() {
+			return word;
+		}
+	}
+
+	/**
+	 * Node that documents must not match
+	 */
+	public static class Not extends Node {
+
+		/** Node that is excluded */
+		private final Node child;
+
+		/**
+		 * Constructor for the exclusion
+		 *
+		 * @param child	node that is excluded
+		 */
+		public Not(Node child) {
+			this.child = child;
+		}
+
+		/**
+		 * Returns the node that is excluded
+		 *
+		 * @return excluded node
+		 */
+		public Node getChild() {
+			return child;
+		}
+
+		@Override
+		public String toString() {
+			return "NOT " + child.grouped();
+		}
+	}
+
+	/**
+	 * Operator joining two or more nodes
+	 */
+	public abstract static class Group extends Node {
+
+		/** Nodes joined by the operator */
+		private final List<Node> children;
+
+		/** Operator written between the nodes */
+		private final String operator;
+
+		/**
+		 * Constructor for the group
+		 *
+		 * @param children	nodes joined by the operator
+		 * @param operator	operator written between the nodes
+		 */
+		protected Group(List<Node> children, String operator) {
+			this.children = Collections.unmodifiableList(new ArrayList<>(children));
+			this.operator = operator;
+		}
+
+		/**
+		 * Returns the nodes joined by the operator
+		 *
+		 * @return unmodifiable list of nodes
+		 */
+		public List<Node> getChildren() {
+			return children;
+		}
+
+		@Override
+		protected String grouped() {
+			return "(" + toString() + ")";
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			for (Node child : children) {
+				if (builder.length() > 0) {
+					builder.append(' ').append(operator).append(' ');
+				}
+				builder.append(child instanceof Or && this instanceof And ? child.grouped() : child.toString());
+			}
+			return builder.toString();
+		}
+	}
+
+	/**
+	 * Nodes that documents must all match
+	 */
+	public static class And extends Group {
+
+		/**
+		 * Constructor for the conjunction
+		 *
+		 * @param children	nodes that documents must all match
+		 */
+		public And(List<Node> children) {
+			super(children, "AND");
+		}
+	}
+
+	/**
+	 * Nodes that documents must match at least one of
+	 */
+	public static class Or extends Group {
+
+		/**
+		 * Constructor for the disjunction
+		 *
+		 * @param children	nodes that documents must match at least one of
+		 */
+		public Or(List<Node> children) {
+			super(children, "OR");
+		}
+	}
+}
@@ -1,5 +1,12 @@
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
 
 /**
  * Class responsible for running this project based on the provided command-line
@@ -21,11 +28,65 @@ public class Driver {
 	 */
 	private static final Path DEFAULT_COUNT_PATH = Path.of("counts.json");
 
+	/**
+	 * Default path for the index of the pieces of the words
+	 */
+	private static final Path DEFAULT_GRAMS_PATH = Path.of("grams.txt");
+
 	/**
 	 * Default path for result
 	 */
 	private static final Path DEFAULT_RESULT_PATH = Path.of("results.json");
 
+	/**
+	 * Default memory budget in megabytes for the index when spilling to disk
+	 */
+	private static final int DEFAULT_MEMORY = 256;
+
+	/**
+	 * Value of the -threads flag that lets the thread count adjust during the run
+	 */
+	private static final String AUTO_THREADS = "auto";
+
+	/**
+	 * How many times the processor count the thread count may grow to in auto mode
+	 */
+	private static final int AUTO_GROWTH = 4;
+
+	/**
+	 * Default number of queries searched together in batch mode
+	 */
+	private static final int DEFAULT_BATCH = 64;
+
+	/**
+	 * Value of the -stream flag that writes each query as it completes instead of sorted
+	 */
+	private static final String UNORDERED_STREAM = "ndjson";
+
+	/**
+	 * Flags passed on to the shard processes started by the -shards flag. The -maxdf flag is
+	 * left out, since a shard can only count the documents it holds and would drop a word that
+	 * another shard keeps.
+	 */
+	private static final String[] SHARD_FLAGS = {"-threads", "-parallel", "-memory", "-score", "-cache", "-ttl", "-stopwords"};
+
+	/**
+	 * Flags passed on to the worker processes started by the -workers flag. Stop words are
+	 * left out while the segments are merged instead, since the word counts are rebuilt
+	 * from the highest position in each segment.
+	 */
+	private static final String[] WORKER_FLAGS = {"-threads", "-parallel", "-memory"};
+
+	/**
+	 * Default path for work queue metrics
+	 */
+	private static final Path DEFAULT_METRICS_PATH = Path.of("metrics.json");
+
+	/**
+	 * Milliseconds between writes of the work queue metrics
+	 */
+	private static final long METRICS_PERIOD = 1000;
+
 	/**
 	 * Initializes the classes necessary based on the provided command-line
 	 * arguments. This includes (but is not limited to) how to build or search an
@@ -38,26 +99,146 @@ public class Driver {
 		IndexBuilder builder;
 		QueryBuilderInterface build;
 		WorkQueue workQueue = null;
+		IndexSpiller spiller = null;
+		ThreadSafeInvertedIndex threadSafeIndex = null;
+		ThreadController controller = null;
+		WorkQueueMetrics metrics = null;
+		QueryCache cache = null;
+		ResultSpiller results = null;
 		ArgumentParser parser = new ArgumentParser(args);
 		int threads = 5;
+		int limit = parser.hasValue("-limit") ? parser.getInt("-limit", 0) : 0;
+		long deadline = parser.hasValue("-deadline") ? parser.getInt("-deadline", 0) : 0;
+		int batch = 0;
+		if(parser.hasFlag("-batch")) {
+			batch = parser.hasValue("-batch") ? parser.getInt("-batch", DEFAULT_BATCH) : DEFAULT_BATCH;
+		}
+
+		if(parser.hasValue("-memory")) {
+			try {
+				spiller = new IndexSpiller(parser.getInt("-memory", DEFAULT_MEMORY));
+			}
+			catch (IOException e) {
+				System.err.printf("Unable to create the spill directory due to error: %s", e.toString());
+			}
+		}
 
-		if(parser.hasFlag("-threads")) {
-			if(parser.hasValue("-threads")) {
-				threads = parser.getInt("-threads", threads);
+		if(parser.hasFlag("-stream")) {
+			boolean unordered = UNORDERED_STREAM.equalsIgnoreCase(parser.getString("-stream"));
+			int megabytes = parser.hasValue("-stream") && !unordered ? parser.getInt("-stream", ResultSpiller.DEFAULT_MEMORY) : ResultSpiller.DEFAULT_MEMORY;
+			try {
+				results = new ResultSpiller(megabytes, unordered);
 			}
-			ThreadSafeInvertedIndex threadSafeIndex = new ThreadSafeInvertedIndex();
+			catch (IOException e) {
+				System.err.printf("Unable to create the result spill directory due to error: %s", e.toString());
+			}
+		}
+
+		if(parser.hasFlag("-cache")) {
+			int size = parser.hasValue("-cache") ? parser.getInt("-cache", QueryCache.DEFAULT_SIZE) : QueryCache.DEFAULT_SIZE;
+			long ttl = parser.hasValue("-ttl") ? parser.getInt("-ttl", 1) * 1000L : 0;
+			cache = new QueryCache(size, ttl);
+		}
+
+		SearchOptions options = new SearchOptions().cache(cache).limit(limit).batch(batch).spiller(results).deadline(deadline);
+
+		if(parser.hasFlag("-threads") || parser.hasFlag("-html") || parser.hasFlag("-serve")) {
+			if(AUTO_THREADS.equalsIgnoreCase(parser.getString("-threads"))) {
+				threads = Runtime.getRuntime().availableProcessors();
+				workQueue = new WorkQueue(threads, threads * AUTO_GROWTH);
+				controller = new ThreadController(workQueue, ThreadController.DEFAULT_PERIOD);
+				controller.start();
+			}
+			else {
+				if(parser.hasValue("-threads")) {
+					threads = parser.getInt("-threads", threads);
+				}
+				workQueue = new WorkQueue(threads);
+			}
+			long split = parser.hasValue("-parallel") ? parser.getInt("-parallel", 1) : ThreadSafeInvertedIndex.DEFAULT_PARALLEL_THRESHOLD;
+			threadSafeIndex = new ThreadSafeInvertedIndex(workQueue, split);
 			index = threadSafeIndex;
-			workQueue = new WorkQueue(threads);
-			builder = new MultiIndexBuilder(threadSafeIndex, workQueue);
-			build = new MultiQueryBuilder(threadSafeIndex, parser.hasFlag("-exact"), threads);
+			try {
+				workQueue.getMetrics().register("Driver");
+			}
+			catch (JMException e) {
+				System.err.printf("Unable to register the work queue metrics due to error: %s", e.toString());
+			}
+			if(parser.hasFlag("-metrics")) {
+				workQueue.getMetrics().startDump(parser.getPath("-metrics", DEFAULT_METRICS_PATH), METRICS_PERIOD);
+			}
+			builder = new MultiIndexBuilder(threadSafeIndex, workQueue, spiller);
+			build = new MultiQueryBuilder(threadSafeIndex, parser.hasFlag("-exact"), workQueue, options);
 		}
 		else {
 			index = new InvertedIndex();
-			builder = new IndexBuilder(index);
-			build = new QueryBuilder(index, parser.hasFlag("-exact"));
+			builder = new IndexBuilder(index, spiller);
+			if(parser.hasFlag("-metrics")) {
+				// without a work queue only the timeouts of the searches are counted
+				metrics = new WorkQueueMetrics(0);
+				metrics.startDump(parser.getPath("-metrics", DEFAULT_METRICS_PATH), METRICS_PERIOD);
+			}
+			build = new QueryBuilder(index, parser.hasFlag("-exact"), new SearchOptions(options).metrics(metrics));
+		}
+
+		if(parser.hasValue("-score")) {
+			ScoringModel scoring = ScoringModel.forName(parser.getString("-score"));
+			if(scoring == null) {
+				System.err.printf("Unknown scoring model %s, scoring by matches divided by word count.%n", parser.getString("-score"));
+			}
+			index.setScoring(scoring);
+		}
+
+		if(parser.hasFlag("-stopwords")) {
+			try {
+				index.setStopWords(parser.hasValue("-stopwords") ? TextFileStemmer.individualStem(parser.getPath("-stopwords")) : TextFileStemmer.individualStem(IndexBuilder.STOP_WORDS));
+			}
+			catch (IOException e) {
+				System.err.printf("Unable to read the stop words from %s due to error: %s", parser.getString("-stopwords"), e.toString());
+			}
+		}
+
+		if(parser.hasValue("-maxdf")) {
+			if(parser.hasValue("-shards") || parser.hasValue("-shard")) {
+				System.err.printf("Unable to use -maxdf with -shards or -shard, since each shard only counts the documents it holds.%n");
+			}
+			else {
+				index.setFrequencyCap(parser.getInt("-maxdf", 100) / 100.0);
+			}
+		}
+
+		ShardCoordinator coordinator = null;
+		List<ShardProcess> shards = new ArrayList<>();
+		if(parser.hasValue("-shards")) {
+			coordinator = coordinator(parser, shards, limit);
+			if(coordinator != null) {
+				build = coordinator;
+			}
+		}
+		else if(parser.hasValue("-workers")) {
+			builder = new MultiProcessIndexBuilder(index, parser.getInt("-workers", 1), forward(parser, WORKER_FLAGS));
+		}
+		else if(parser.hasValue("-shard")) {
+			String[] shard = parser.getString("-shard").split("/");
+			try {
+				builder.setShard(Integer.parseInt(shard[0]), Integer.parseInt(shard[1]));
+			}
+			catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				System.err.printf("Unable to use shard %s, expected a shard and a number of shards such as 0/4.%n", parser.getString("-shard"));
+			}
+			catch (IllegalArgumentException e) {
+				System.err.printf("Unable to use shard %s due to error: %s%n", parser.getString("-shard"), e.getMessage());
+			}
 		}
 
-		if(parser.hasFlag("-path")) {
+		if(parser.hasFlag("-grams")) {
+			index.indexGrams();
+		}
+
+		if(coordinator != null) {
+			System.out.printf("Searching %d shards%n", shards.isEmpty() ? parser.getString("-shards").split(",").length : shards.size());
+		}
+		else if(parser.hasFlag("-path")) {
 			if(parser.hasValue("-path")) {
 				Path path = parser.getPath("-path");
 				try {
@@ -68,21 +249,282 @@ public class Driver {
 				}
 			}
 		}
-		else {
+		else if(!parser.hasFlag("-html")) {
 			System.err.printf("Provided -path flag without the required value.");
 		}
 
+		if(parser.hasValue("-segment")) {
+			Path segment = parser.getPath("-segment");
+			try {
+				if(spiller != null) {
+					spiller.writeSegment(index, segment);
+				}
+				else {
+					index.spill(segment);
+				}
+				System.out.println(MultiProcessIndexBuilder.READY + segment);
+			}
+			catch (IOException e) {
+				System.err.printf("Unable to write the segment %s due to error: %s", segment.toString(), e.toString());
+			}
+		}
+
+		if(parser.hasValue("-html")) {
+			String seed = parser.getString("-html");
+			int max = parser.getInt("-max", WebCrawler.DEFAULT_MAX);
+			int connections = parser.getInt("-connections", WebCrawler.DEFAULT_CONNECTIONS);
+			WebCrawler crawler = new WebCrawler(threadSafeIndex, workQueue, max, connections, spiller);
+			try {
+				crawler.crawl(URI.create(seed));
+				System.out.println(crawler);
+			}
+			catch (IllegalArgumentException | URISyntaxException e) {
+				System.err.printf("Unable to crawl %s due to error: %s", seed, e.toString());
+			}
+		}
+
+		if(parser.hasFlag("-watch") && spiller != null && spiller.hasRuns()) {
+			try {
+				spiller.load(index);
+			}
+			catch (IOException e) {
+				System.err.printf("Unable to merge the spilled index due to error: %s", e.toString());
+			}
+		}
+
+		if(parser.hasValue("-maxdf")) {
+			index.capFrequency();
+		}
+
+		if(cache != null) {
+			index.addListener(cache);
+		}
+
+		output(parser, index, build, spiller, workQueue);
+
+		if((parser.hasFlag("-stopwords") || parser.hasValue("-maxdf")) && coordinator == null) {
+			System.out.printf("Left %d stop words out of the index, dropping %d positions or about %d MB%n",
+					index.getStopWords().size(), index.numStopped(), index.numStopped() * IndexSpiller.BYTES_PER_POSITION / (1024 * 1024));
+		}
+
+		SearchServer server = null;
+		if(parser.hasFlag("-serve") && coordinator == null) {
+			// port 0 lets the system pick a free port, which shard processes rely on
+			int port = "0".equals(parser.getString("-serve")) ? 0 : parser.getInt("-serve", SearchServer.DEFAULT_PORT);
+			WorkQueue pool = workQueue;
+			try {
+				server = new SearchServer(index, port, r -> pool.execute(r, WorkQueue.Priority.INTERACTIVE), parser.hasFlag("-exact"), new SearchOptions(options).metrics(workQueue.getMetrics()));
+				server.start();
+				SearchServer stopping = server;
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> stopping.stop(1)));
+				System.out.println(SearchServer.READY + server.getPort());
+			}
+			catch (IOException e) {
+				System.err.printf("Unable to serve searches on port %d due to error: %s", port, e.toString());
+				server = null;
+			}
+		}
+
+		if(parser.hasFlag("-watch") && parser.hasValue("-path") && coordinator == null) {
+			Path path = parser.getPath("-path");
+			long debounce = parser.hasValue("-watch") ? parser.getInt("-watch", (int) IndexWatcher.DEFAULT_DEBOUNCE) : IndexWatcher.DEFAULT_DEBOUNCE;
+			WorkQueue pool = workQueue;
+			QueryBuilderInterface searches = build;
+			try {
+				IndexWatcher watcher = new IndexWatcher(index, path, debounce);
+				watcher.watch(changed -> {
+					System.out.printf("Updated %d files in the index%n", changed.size());
+					if(parser.hasValue("-maxdf")) {
+						index.capFrequency();
+					}
+					searches.clear();
+					output(parser, index, searches, null, pool);
+				});
+			}
+			catch (IOException e) {
+				System.err.printf("Unable to watch %s due to error: %s", path.toString(), e.toString());
+			}
+		}
+
+		if(server != null) {
+			try {
+				server.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			System.out.println(server);
+		}
+
+		for(ShardProcess shard : shards) {
+			shard.stop();
+		}
+		for(ShardProcess shard : shards) {
+			shard.join();
+		}
+
+		if(coordinator != null) {
+			System.out.println(coordinator);
+		}
+
+		if(controller != null) {
+			controller.stop();
+		}
+
+		if(cache != null) {
+			System.out.println(cache);
+		}
+
+		if(workQueue != null) {
+			workQueue.shutdown();
+			if(parser.hasFlag("-metrics")) {
+				workQueue.getMetrics().stopDump(parser.getPath("-metrics", DEFAULT_METRICS_PATH));
+			}
+			workQueue.getMetrics().unregister();
+		}
+		else if(metrics != null) {
+			metrics.stopDump(parser.getPath("-metrics", DEFAULT_METRICS_PATH));
+		}
+
+		if(spiller != null) {
+			try {
+				spiller.delete();
+			}
+			catch (IOException e) {
+				System.err.printf("Unable to delete the spilled runs due to error: %s", e.toString());
+			}
+		}
+
+		if(results != null) {
+			try {
+				results.delete();
+			}
+			catch (IOException e) {
+				System.err.printf("Unable to delete the spilled query results due to error: %s", e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Creates the coordinator for the -shards flag, which is either a number of shard processes to
+	 * start on this machine, each indexing its part of the -path directory, or a comma separated list
+	 * of the host and port of shards that are already serving searches
+	 *
+	 * @param parser	the parsed arguments
+	 * @param shards	list to add the started shard processes to, so they can be stopped
+	 * @param limit	maximum number of results for each query, or 0 to keep every result
+	 * @return the coordinator, or null if the shards could not be reached
+	 */
+	private static ShardCoordinator coordinator(ArgumentParser parser, List<ShardProcess> shards, int limit) {
+		String value = parser.getString("-shards");
+		List<URI> addresses = new ArrayList<>();
+		try {
+			if(value.matches("\\d+")) {
+				if(!parser.hasValue("-path")) {
+					System.err.printf("Starting shards requires the -path flag.%n");
+					return null;
+				}
+				int count = Integer.parseInt(value);
+				for(int i = 0; i < count; i++) {
+					List<String> arguments = new ArrayList<>(List.of("-path", parser.getString("-path"), "-shard", i + "/" + count, "-serve", "0"));
+					arguments.addAll(forward(parser, SHARD_FLAGS));
+					shards.add(new ShardProcess(i, arguments));
+				}
+				for(ShardProcess shard : shards) {
+					addresses.add(URI.create("http://localhost:" + shard.await(SearchServer.READY)));
+				}
+			}
+			else {
+				for(String address : value.split(",")) {
+					addresses.add(URI.create(address.contains("://") ? address : "http://" + address));
+				}
+			}
+		}
+		catch (IOException | IllegalArgumentException e) {
+			System.err.printf("Unable to reach the shards %s due to error: %s%n", value, e.toString());
+			return null;
+		}
+		Duration timeout = parser.hasValue("-timeout") ? Duration.ofMillis(parser.getInt("-timeout", 1)) : ShardCoordinator.DEFAULT_TIMEOUT;
+		return new ShardCoordinator(addresses, timeout, limit);
+	}
+
+	/**
+	 * Returns the flags that are present along with their values, to pass on to another process
+	 *
+	 * @param parser	the parsed arguments
+	 * @param flags	the flags to pass on
+	 * @return the flags and values in order
+	 */
+	private static List<String> forward(ArgumentParser parser, String[] flags) {
+		List<String> arguments = new ArrayList<>();
+		for(String flag : flags) {
+			if(parser.hasFlag(flag)) {
+				arguments.add(flag);
+				if(parser.hasValue(flag)) {
+					arguments.add(parser.getString(flag));
+				}
+			}
+		}
+		return arguments;
+	}
+
+	/**
+	 * Writes the index, counts, and query results requested by the command-line arguments.
+	 * When a work queue is given, the index and counts are written on the work queue
+	 * while the queries are being evaluated.
+	 *
+	 * @param parser	parsed command-line arguments
+	 * @param index	Inverted Index
+	 * @param build	query builder
+	 * @param spiller	spiller holding the runs of the index, or null if nothing was spilled
+	 * @param workQueue	work queue shared with the other phases, or null if single threaded
+	 */
+	private static void output(ArgumentParser parser, InvertedIndex index, QueryBuilderInterface build, IndexSpiller spiller, WorkQueue workQueue) {
+		boolean spilled = spiller != null && spiller.hasRuns();
+		WorkQueue.TaskGroup writers = workQueue != null && !spilled ? workQueue.newGroup() : null;
+
 		if(parser.hasFlag("-index")) {	//if it has a path
 			Path path = parser.getPath("-index", DEFAULT_INDEX_PATH);
-			indexJson(path, index);
+			if(spilled) {
+				indexJson(path, index, spiller);
+			}
+			else if(writers != null) {
+				writers.execute(() -> indexJson(path, index));
+			}
+			else {
+				indexJson(path, index);
+			}
 		}
 
 		if(parser.hasFlag("-counts")) {
 			Path path = parser.getPath("-counts", DEFAULT_COUNT_PATH);
-			countJson(path, index);
+			if(writers != null) {
+				writers.execute(() -> countJson(path, index));
+			}
+			else {
+				countJson(path, index);
+			}
+		}
+
+		if(parser.hasFlag("-grams")) {
+			Path path = parser.getPath("-grams", DEFAULT_GRAMS_PATH);
+			if(writers != null) {
+				writers.execute(() -> gramsFile(path, index));
+			}
+			else {
+				gramsFile(path, index);
+			}
 		}
 
 		if (parser.hasFlag("-query")) {
+			if (spilled) {
+				try {
+					spiller.load(index);
+				}
+				catch (IOException e) {
+					System.err.printf("Unable to merge the spilled index due to error: %s", e.toString());
+				}
+			}
 			if (parser.hasValue("-query")) {
 				Path path = parser.getPath("-query");
 				try {
@@ -94,6 +536,13 @@ public class Driver {
 					System.err.printf("File %s has an error caused by %s", path.toString(), e.getCause().toString());
 				}
 			}
+			if (!build.getTruncated().isEmpty()) {
+				System.err.printf("Ran out of time and kept partial results for %d queries: %s%n", build.getTruncated().size(), String.join(", ", build.getTruncated()));
+			}
+		}
+
+		if (writers != null) {
+			writers.finish();
 		}
 
 		if (parser.hasFlag("-results")) {
@@ -105,10 +554,6 @@ public class Driver {
 				System.err.printf("File %s has an error caused by %s", path.toString(), e.getCause().toString());
 			}
 		}
-
-		if(workQueue != null) {
-			workQueue.shutdown();
-		}
 	}
 
 	/**
@@ -125,6 +570,20 @@ public class Driver {
 		}
 	}
 
+	/**
+	 * Writes the index of the pieces of the words used by wildcard searches
+	 * @param path	file path
+	 * @param index	Inverted Index
+	 */
+	public static void gramsFile(Path path, InvertedIndex index) {
+		try {
+			index.writeGrams(path);
+		}
+		catch (IOException e) {
+			System.err.printf("File %s has an error caused by %s", path.toString(), e.toString());
+		}
+	}
+
 	/**
 	 * Prints out the whole inverted index
 	 * @param path file path
@@ -138,4 +597,19 @@ public class Driver {
 			System.err.printf("File %s has an error caused by %s", path.toString(), e.getCause().toString());
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Merges the spilled runs straight into the inverted index file
+	 * @param path file path
+	 * @param index	Inverted Index that was spilled
+	 * @param spiller	spiller holding the runs
+	 */
+	public static void indexJson(Path path, InvertedIndex index, IndexSpiller spiller) {
+		try {
+			spiller.writeIndex(index, path);
+		}
+		catch (IOException e) {
+			System.err.printf("File %s has an error caused by %s", path.toString(), e.toString());
+		}
+	}
+}
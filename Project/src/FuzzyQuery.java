@@ -0,0 +1,100 @@
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * Query line of the form {@code terms~N} for a fuzzy search, where each stemmed
+ * term also matches the words within N insertions, deletions, or substitutions
+ * of it. Without a number, {@code terms~} allows a single edit. Unlike a phrase,
+ * the terms are not quoted.
+ *
+ * @author EricChen
+ */
+public class FuzzyQuery {
+
+	/** Regular expression that matches an unquoted query line ending with a tilde and an optional distance. **/
+	public static final Pattern FUZZY_REGEX = Pattern.compile("^\\s*([^\"~]*?)\\s*~\\s*(\\d+)?\\s*$");
+
+	/** Default number of edits when the line does not give one */
+	public static final int DEFAULT_DISTANCE = 1;
+
+	/** Stemmed terms of the query in sorted order */
+	private final TreeSet<String> terms;
+
+	/** Number of edits allowed for each term */
+	private final int distance;
+
+	/**
+	 * Constructor for the fuzzy query
+	 *
+	 * @param terms	stemmed terms of the query
+	 * @param distance	number of edits allowed for each term
+	 */
+	public FuzzyQuery(TreeSet<String> terms, int distance) {
+		this.terms = terms;
+		this.distance = Math.max(0, Math.min(distance, LevenshteinAutomaton.MAX_DISTANCE));
+	}
+
+	/**
+	 * Parses and stems the line if it is a fuzzy query
+	 *
+	 * @param line	query line
+	 * @param stemmer	the stemmer to use
+	 * @return the fuzzy query, or null if the line is not a fuzzy query or has no words
+	 */
+	public static FuzzyQuery parse(String line, Stemmer stemmer) {
+		Matcher matcher = FUZZY_REGEX.matcher(line);
+		if (!matcher.matches()) {
+			return null;
+		}
+
+		TreeSet<String> terms = new TreeSet<>();
+		for (String word : TextParser.parse(matcher.group(1))) {
+			terms.add(stemmer.stem(word).toString());
+		}
+		if (terms.isEmpty()) {
+			return null;
+		}
+
+		int distance = DEFAULT_DISTANCE;
+		if (matcher.group(2) != null) {
+			try {
+				distance = Integer.parseInt(matcher.group(2));
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return new FuzzyQuery(terms, distance);
+	}
+
+	/**
+	 * Returns the stemmed terms of the query in sorted order
+	 *
+	 * @return unmodifiable set of stemmed terms
+	 */
+	public Set<String> getTerms() {
+		return Collections.unmodifiableSet(terms);
+	}
+
+	/**
+	 * Returns the number of edits allowed for each term
+	 *
+	 * @return number of edits, at most {@link LevenshteinAutomaton#MAX_DISTANCE}
+	 */
+	public int getDistance() {
+		return distance;
+	}
+
+	/**
+	 * Returns the key used for this query in the results
+	 */
+	@Override
+	public String toString() {
+		return String.join(" ", terms) + "~" + distance;
+	}
+}
@@ -0,0 +1,227 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Index from the three letter pieces of the words in the inverted index to the
+ * words containing them, used to resolve wildcard patterns such as
+ * {@code *tion} or {@code *work*} without looking at every word. Each word is
+ * marked with {@code $} at both ends before it is cut up, so {@code work} has
+ * the pieces {@code $wo}, {@code wor}, {@code ork} and {@code rk$}. A pattern
+ * is cut up the same way, only marking the ends that are not wildcards, and the
+ * words holding every piece of the pattern are checked against it.
+ *
+ * The index can be written to a file with one piece per line, for example
+ * {@code wor\twork worker world}, and read back.
+ *
+ * @author EricChen
+ */
+public class GramIndex {
+
+	/** Number of letters in each piece */
+	public static final int SIZE = 3;
+
+	/** Marker added to both ends of a word */
+	public static final char BOUNDARY = '$';
+
+	/** Character matching any run of letters in a pattern */
+	public static final char WILDCARD = '*';
+
+	/** Separator between the piece and the words of a line of the file */
+	private static final char SEPARATOR = '\t';
+
+	/** Piece mapped to the words containing it */
+	private final TreeMap<String, HashSet<String>> grams;
+
+	/** Creates an empty index */
+	public GramIndex() {
+		this.grams = new TreeMap<>();
+	}
+
+	/**
+	 * Creates the index of the words
+	 *
+	 * @param words the words to add
+	 */
+	public GramIndex(Collection<String> words) {
+		this();
+		for (String word : words) {
+			add(word);
+		}
+	}
+
+	/**
+	 * Adds a word to the index
+	 *
+	 * @param word the word to add
+	 */
+	public void add(String word) {
+		for (String gram : grams(BOUNDARY + word + BOUNDARY)) {
+			grams.computeIfAbsent(gram, key -> new HashSet<>()).add(word);
+		}
+	}
+
+	/**
+	 * Removes a word from the index
+	 *
+	 * @param word the word to remove
+	 */
+	public void remove(String word) {
+		for (String gram : grams(BOUNDARY + word + BOUNDARY)) {
+			HashSet<String> words = grams.get(gram);
+			if (words != null) {
+				words.remove(word);
+				if (words.isEmpty()) {
+					grams.remove(gram);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of pieces in the index
+	 *
+	 * @return number of pieces
+	 */
+	public int size() {
+		return grams.size();
+	}
+
+	/**
+	 * Returns the words matching the wildcard pattern, walking the words holding the rarest
+	 * piece of the pattern and checking the other pieces and the pattern on each of them
+	 *
+	 * @param pattern lowercase letters with {@code *} matching any run of letters
+	 * @return sorted words matching the pattern, or null if the pattern has no pieces to look up
+	 */
+	public List<String> find(String pattern) {
+		String[] parts = pattern.split("\\" + WILDCARD, -1);
+		List<HashSet<String>> lists = new ArrayList<>();
+		for (int i = 0; i < parts.length; i++) {
+			String part = (i == 0 ? BOUNDARY + parts[i] : parts[i]) + (i == parts.length - 1 ? String.valueOf(BOUNDARY) : "");
+			for (String gram : grams(part)) {
+				HashSet<String> words = grams.get(gram);
+				if (words == null) {
+					return new ArrayList<>();
+				}
+				lists.add(words);
+			}
+		}
+		if (lists.isEmpty()) {
+			return null;
+		}
+
+		lists.sort((one, two) -> Integer.compare(one.size(), two.size()));
+		List<String> found = new ArrayList<>();
+		for (String word : lists.get(0)) {
+			boolean all = true;
+			for (int i = 1; i < lists.size() && all; i++) {
+				all = lists.get(i).contains(word);
+			}
+			if (all && matches(pattern, word)) {
+				found.add(word);
+			}
+		}
+		Collections.sort(found);
+		return found;
+	}
+
+	/**
+	 * Checks to see if a word matches a wildcard pattern
+	 *
+	 * @param pattern lowercase letters with {@code *} matching any run of letters
+	 * @param word the word to check
+	 * @return true if the word matches the whole pattern
+	 */
+	public static boolean matches(String pattern, String word) {
+		String[] parts = pattern.split("\\" + WILDCARD, -1);
+		if (parts.length == 1) {
+			return pattern.equals(word);
+		}
+		String first = parts[0];
+		String last = parts[parts.length - 1];
+		if (word.length() < first.length() + last.length() || !word.startsWith(first) || !word.endsWith(last)) {
+			return false;
+		}
+		int from = first.length();
+		int to = word.length() - last.length();
+		for (int i = 1; i < parts.length - 1; i++) {
+			int found = word.indexOf(parts[i], from);
+			if (found < 0 || found + parts[i].length() > to) {
+				return false;
+			}
+			from = found + parts[i].length();
+		}
+		return true;
+	}
+
+	/**
+	 * Cuts the text into its overlapping pieces of {@link #SIZE} characters
+	 *
+	 * @param text the text to cut up
+	 * @return the pieces in order, or none if the text is shorter than a piece
+	 */
+	private static List<String> grams(String text) {
+		List<String> pieces = new ArrayList<>();
+		for (int i = 0; i + SIZE <= text.length(); i++) {
+			pieces.add(text.substring(i, i + SIZE));
+		}
+		return pieces;
+	}
+
+	/**
+	 * Writes the index to a file with one piece and its words on each line
+	 *
+	 * @param path the location of the file
+	 * @throws IOException if unable to write the file
+	 */
+	public void write(Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			for (Map.Entry<String, HashSet<String>> entry : grams.entrySet()) {
+				writer.write(entry.getKey());
+				writer.write(SEPARATOR);
+				writer.write(String.join(" ", new TreeSet<>(entry.getValue())));
+				writer.write('\n');
+			}
+		}
+	}
+
+	/**
+	 * Reads an index written by {@link #write(Path)}
+	 *
+	 * @param path the location of the file
+	 * @return the index read from the file
+	 * @throws IOException if unable to read the file
+	 */
+	public static GramIndex read(Path path) throws IOException {
+		GramIndex index = new GramIndex();
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int separator = line.indexOf(SEPARATOR);
+				if (separator < 0) {
+					continue;
+				}
+				HashSet<String> words = new HashSet<>();
+				for (String word : TextParser.split(line.substring(separator + 1))) {
+					words.add(word);
+				}
+				if (!words.isEmpty()) {
+					index.grams.put(line.substring(0, separator), words);
+				}
+			}
+		}
+		return index;
+	}
+}
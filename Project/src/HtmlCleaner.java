@@ -0,0 +1,91 @@
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Utility class for turning fetched HTML into plain text that can be passed to
+ * {@link TextParser}, and for finding the links on a page.
+ *
+ * @author EricChen
+ */
+public class HtmlCleaner {
+
+	/** Regular expression that matches HTML comments. **/
+	public static final Pattern COMMENT_REGEX = Pattern.compile("(?s)<!--.*?-->");
+
+	/** Regular expression that matches elements whose content is never displayed as text. **/
+	public static final Pattern BLOCK_REGEX = Pattern.compile("(?is)<(head|style|script|noscript|svg)\\b[^>]*>.*?</\\1\\s*>");
+
+	/** Regular expression that matches any HTML tag. **/
+	public static final Pattern TAG_REGEX = Pattern.compile("(?s)<[^>]*>");
+
+	/** Regular expression that matches HTML entities such as {@code &amp;} or {@code &#39;}. **/
+	public static final Pattern ENTITY_REGEX = Pattern.compile("&[^&;\\s]+;");
+
+	/** Regular expression that matches the href attribute of an anchor tag. **/
+	public static final Pattern LINK_REGEX = Pattern.compile("(?is)<a\\b[^>]*?\\bhref\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s>]+))");
+
+	/**
+	 * Removes comments, non-displayed elements, tags, and entities from the HTML.
+	 * Tags are replaced by a space so words on either side stay separate.
+	 *
+	 * @param html the HTML to clean
+	 * @return the text of the HTML
+	 */
+	public static String stripHtml(String html) {
+		String text = COMMENT_REGEX.matcher(html).replaceAll(" ");
+		text = BLOCK_REGEX.matcher(text).replaceAll(" ");
+		text = TAG_REGEX.matcher(text).replaceAll(" ");
+		return ENTITY_REGEX.matcher(text).replaceAll(" ");
+	}
+
+	/**
+	 * Returns the absolute http or https links found in the HTML, without
+	 * fragments, in the order they appear. Links that cannot be parsed are skipped.
+	 *
+	 * @param base the location of the page, used to resolve relative links
+	 * @param html the HTML to search
+	 * @return list of absolute links
+	 */
+	public static List<URI> listLinks(URI base, String html) {
+		List<URI> links = new ArrayList<>();
+		Matcher matcher = LINK_REGEX.matcher(COMMENT_REGEX.matcher(html).replaceAll(" "));
+
+		while (matcher.find()) {
+			String href = matcher.group(1) != null ? matcher.group(1) : matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+			try {
+				URI link = base.resolve(href.strip().replace(" ", "%20"));
+				if ("http".equalsIgnoreCase(link.getScheme()) || "https".equalsIgnoreCase(link.getScheme())) {
+					links.add(normalize(link));
+				}
+			}
+			catch (IllegalArgumentException | URISyntaxException e) {
+				continue;
+			}
+		}
+		return links;
+	}
+
+	/**
+	 * Removes the fragment from the link and fills in an empty path, so the same
+	 * page is always represented the same way. The percent-escapes of the path and
+	 * query are kept as they were linked, since decoding them can change the page
+	 * the link points to, for example {@code %2F} inside a path segment.
+	 *
+	 * @param link the link to normalize
+	 * @return the normalized link
+	 * @throws URISyntaxException if the link cannot be rebuilt
+	 */
+	public static URI normalize(URI link) throws URISyntaxException {
+		String path = link.getRawPath() == null || link.getRawPath().isEmpty() ? "/" : link.getRawPath();
+		StringBuilder builder = new StringBuilder(link.getScheme().toLowerCase());
+		builder.append("://").append(link.getRawAuthority()).append(path);
+		if (link.getRawQuery() != null) {
+			builder.append('?').append(link.getRawQuery());
+		}
+		return new URI(builder.toString());
+	}
+}
@@ -16,16 +16,67 @@ public class IndexBuilder {
 	/** Inverted index to hold stemmed word, file path, and index count. */
 	private final InvertedIndex index;
 
+	/** Spills the index to disk when it grows past the memory budget, or null if there is no budget */
+	private final IndexSpiller spiller;
+
+	/** Number of the shard of the files this builder adds */
+	private int shard;
+
+	/** Number of shards the files are split between, or 1 to add every file */
+	private int shards;
+
 	/** The default stemmer algorithm used by this class. */
 	public static final SnowballStemmer.ALGORITHM DEFAULT = SnowballStemmer.ALGORITHM.ENGLISH;
 
+	/** Common English words left out of the index when no stop list is given, before stemming */
+	public static final String STOP_WORDS = "a an and are as at be but by for if in into is it no not of on or such that the their then there these they this to was will with";
+
 	/**
 	 * Constructor to create inverted index
 	 *
 	 * @param index	inverted index
 	 */
 	public IndexBuilder(InvertedIndex index) {
+		this(index, null);
+	}
+
+	/**
+	 * Constructor to create inverted index that is kept under a memory budget
+	 *
+	 * @param index	inverted index
+	 * @param spiller	spiller holding the memory budget, or null if there is no budget
+	 */
+	public IndexBuilder(InvertedIndex index, IndexSpiller spiller) {
 		this.index = index;
+		this.spiller = spiller;
+		this.shard = 0;
+		this.shards = 1;
+	}
+
+	/**
+	 * Only adds the files of one shard when building from a directory, so several processes
+	 * can each index their own part of the same directory. Files are split by a hash of their path.
+	 *
+	 * @param shard	number of the shard to add, from 0 to one less than the number of shards
+	 * @param shards	number of shards the files are split between
+	 * @throws IllegalArgumentException	if the shard is not one of the shards
+	 */
+	public void setShard(int shard, int shards) {
+		if(shards < 1 || shard < 0 || shard >= shards) {
+			throw new IllegalArgumentException("Shard " + shard + " is not one of " + shards + " shards");
+		}
+		this.shard = shard;
+		this.shards = shards;
+	}
+
+	/**
+	 * Returns true if the file belongs to the shard this builder adds
+	 *
+	 * @param path	path to the file
+	 * @return true if the file should be added
+	 */
+	public boolean isShardFile(Path path) {
+		return Math.floorMod(path.toString().hashCode(), shards) == shard;
 	}
 
 	/**
@@ -38,7 +89,9 @@ public class IndexBuilder {
 	public void build(Path path) throws IOException {
 		if(Files.isDirectory(path)) {	//if the path is a directory
 			for(Path file : TextFileFinder.list(path)) {	//looping through directory stream for files
-				addFile(file);
+				if(isShardFile(file)) {
+					addFile(file);
+				}
 			}
 		}
 		else if(isTextFile(path)) {	//if the path leads to a file
@@ -52,6 +105,9 @@ public class IndexBuilder {
 	 */
 	public void addFile(Path inputFile) throws IOException {
 		addFile(inputFile, this.index);
+		if(spiller != null) {
+			spiller.check(this.index);
+		}
 	}
 
 	/** Static method to stem the words and add it directly into the inverted index while updating the index count
@@ -67,16 +123,29 @@ public class IndexBuilder {
 			String line = reader.readLine();
 			String result = inputFile.toString();
 			while(line != null){
-				String[] parsed = TextParser.parse(line); //putting parsed words into new string array
-				for(String words : parsed) { //getting the words in the parsed line
-					count++;
-					index.add(stemmer.stem(words).toString(), result, count); //adds stemmed word into tree set
-				}
+				count = addLine(line, result, count, stemmer, index);
 				line = reader.readLine();
 			}
 		}
 	}
 
+	/** Static method to stem the words of a single line and add them into the inverted index
+	 * @param line	line of text to parse and stem
+	 * @param location	location the line came from
+	 * @param count	index count of the last word added from this location
+	 * @param stemmer	the stemmer to use
+	 * @param index	the inverted index
+	 * @return	index count of the last word added from this location
+	 */
+	public static int addLine(String line, String location, int count, Stemmer stemmer, InvertedIndex index) {
+		String[] parsed = TextParser.parse(line); //putting parsed words into new string array
+		for(String words : parsed) { //getting the words in the parsed line
+			count++;
+			index.add(stemmer.stem(words).toString(), location, count); //adds stemmed word into tree set
+		}
+		return count;
+	}
+
 	/** Returns true if path is a text file, otherwise returns false
 	 * @param path to file
 	 * @return true if is text file, false if not
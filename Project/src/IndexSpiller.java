@@ -0,0 +1,401 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Keeps the inverted index under a memory budget by flushing it to sorted run
+ * files on disk, and later combines those runs with an external k-way merge
+ * either back into an inverted index or straight into the index JSON file.
+ *
+ * Each line of a run holds one word and path followed by its positions, for
+ * example {@code word\tpath\t1,5,9}. Lines are sorted by word and then path.
+ *
+ * @author EricChen
+ */
+public class IndexSpiller {
+
+	/** Rough number of bytes used by a single position stored in the index */
+	public static final int BYTES_PER_POSITION = 64;
+
+	/** Separator between the fields of a run line */
+	private static final char SEPARATOR = '\t';
+
+	/** Maximum number of positions to hold in memory before spilling */
+	private final long budget;
+
+	/** Directory holding the run files */
+	private final Path directory;
+
+	/** Run files written so far, in the order they were written */
+	private final List<Path> runs;
+
+	/**
+	 * Constructor for the spiller
+	 *
+	 * @param megabytes memory budget for the inverted index in megabytes
+	 * @throws IOException if unable to create the temporary run directory
+	 */
+	public IndexSpiller(int megabytes) throws IOException {
+		this.budget = Math.max(1, megabytes * 1024L * 1024L / BYTES_PER_POSITION);
+		this.directory = Files.createTempDirectory("index-runs");
+		this.runs = new ArrayList<>();
+	}
+
+	/**
+	 * Spills the index to a new run if it is holding more positions than the
+	 * budget allows
+	 *
+	 * @param index the inverted index to check
+	 * @throws IOException if unable to write the run
+	 */
+	public synchronized void check(InvertedIndex index) throws IOException {
+		if (index.numPositions() > budget) {
+			spill(index);
+		}
+	}
+
+	/**
+	 * Spills whatever is left of the index into a new run
+	 *
+	 * @param index the inverted index to spill
+	 * @throws IOException if unable to write the run
+	 */
+	public synchronized void spill(InvertedIndex index) throws IOException {
+		if (index.numPositions() == 0) {
+			return;
+		}
+		Path run = directory.resolve("run-" + runs.size() + ".txt");
+		index.spill(run);
+		runs.add(run);
+	}
+
+	/**
+	 * Checks to see if anything has been spilled to disk
+	 *
+	 * @return true if at least one run has been written
+	 */
+	public synchronized boolean hasRuns() {
+		return !runs.isEmpty();
+	}
+
+	/**
+	 * Spills the remainder of the index and merges every run straight into the
+	 * index JSON file, keeping only one word in memory at a time. Words over the
+	 * frequency cap of the index are left out, since every run is needed to count
+	 * their documents.
+	 *
+	 * @param index the inverted index that was being spilled
+	 * @param path  the location of the JSON file
+	 * @throws IOException if unable to read the runs or write the file
+	 */
+	public synchronized void writeIndex(InvertedIndex index, Path path) throws IOException {
+		spill(index);
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writeIndex(index, writer);
+		}
+	}
+
+	/**
+	 * Spills the remainder of the index and merges every run back into it. The
+	 * merged index must fit in memory. The runs are deleted afterwards since the
+	 * index holds everything again, and the frequency cap of the index is applied
+	 * now that every document of each word can be counted.
+	 *
+	 * @param index the inverted index that was being spilled
+	 * @throws IOException if unable to read the runs
+	 */
+	public synchronized void load(InvertedIndex index) throws IOException {
+		spill(index);
+		load(runs, index);
+		deleteRuns();
+		index.capFrequency();
+	}
+
+	/**
+	 * Spills the remainder of the index and merges every run into a single run file,
+	 * so the whole index can be handed to another process as one segment
+	 *
+	 * @param index the inverted index that was being spilled
+	 * @param path  the location of the segment
+	 * @throws IOException if unable to read the runs or write the segment
+	 */
+	public synchronized void writeSegment(InvertedIndex index, Path path) throws IOException {
+		spill(index);
+		try (Merger merger = new Merger(runs);
+				BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			while (merger.hasNext()) {
+				String word = merger.nextWord();
+				writeLines(word, merger.postings(word), writer);
+			}
+		}
+		deleteRuns();
+	}
+
+	/**
+	 * Merges the runs or segments into the index one word at a time. The word count
+	 * of each location is rebuilt from its highest position.
+	 *
+	 * @param runs  the run files to merge
+	 * @param index the inverted index to add to
+	 * @throws IOException if unable to read the runs
+	 */
+	public static void load(List<Path> runs, InvertedIndex index) throws IOException {
+		try (Merger merger = new Merger(runs)) {
+			while (merger.hasNext()) {
+				String word = merger.nextWord();
+				index.addAll(word, merger.postings(word));
+			}
+		}
+	}
+
+	/**
+	 * Merges the runs into the writer using the same format as
+	 * {@link SimpleJsonWriter#asInvertedObject(Map, Writer, int)}
+	 *
+	 * @param index the inverted index holding the frequency cap
+	 * @param writer the writer to use
+	 * @throws IOException if unable to read the runs or write the output
+	 */
+	private void writeIndex(InvertedIndex index, Writer writer) throws IOException {
+		try (Merger merger = new Merger(runs)) {
+			writer.write("{\n");
+			boolean first = true;
+			while (merger.hasNext()) {
+				String word = merger.nextWord();
+				TreeMap<String, TreeSet<Integer>> postings = merger.postings(word);
+				if (index.isFrequent(postings.size())) {
+					continue;
+				}
+				if (!first) {
+					writer.write(",\n");
+				}
+				first = false;
+				SimpleJsonWriter.quote(word, writer, 1);
+				writer.write(": ");
+				SimpleJsonWriter.asNestedObject(postings, writer, 1);
+			}
+			writer.write("\n");
+			SimpleJsonWriter.indent("}", writer, 0);
+		}
+	}
+
+	/**
+	 * Deletes the run files and the run directory
+	 *
+	 * @throws IOException if unable to delete the files
+	 */
+	public synchronized void delete() throws IOException {
+		deleteRuns();
+		Files.deleteIfExists(directory);
+	}
+
+	/**
+	 * Deletes the run files but keeps the run directory for later spills
+	 *
+	 * @throws IOException if unable to delete the files
+	 */
+	private void deleteRuns() throws IOException {
+		for (Path run : runs) {
+			Files.deleteIfExists(run);
+		}
+		runs.clear();
+	}
+
+	/**
+	 * Writes the index to a sorted run file
+	 *
+	 * @param index the nested index of words, paths, and positions
+	 * @param path  the location of the run file
+	 * @throws IOException if unable to write the file
+	 */
+	public static void writeRun(Map<String, TreeMap<String, TreeSet<Integer>>> index, Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			for (String word : index.keySet()) {
+				writeLines(word, index.get(word), writer);
+			}
+		}
+	}
+
+	/**
+	 * Writes the run lines of a single word, one for each path
+	 *
+	 * @param word     the word
+	 * @param postings paths mapped to the positions of the word
+	 * @param writer   the writer to use
+	 * @throws IOException if unable to write the lines
+	 */
+	private static void writeLines(String word, Map<String, TreeSet<Integer>> postings, Writer writer) throws IOException {
+		for (Map.Entry<String, TreeSet<Integer>> entry : postings.entrySet()) {
+			writer.write(word);
+			writer.write(SEPARATOR);
+			writer.write(entry.getKey());
+			writer.write(SEPARATOR);
+			Iterator<Integer> iterator = entry.getValue().iterator();
+			writer.write(iterator.next().toString());
+			while (iterator.hasNext()) {
+				writer.write(',');
+				writer.write(iterator.next().toString());
+			}
+			writer.write('\n');
+		}
+	}
+
+	/**
+	 * A single line of a run file
+	 */
+	private static class Line {
+
+		/** Stemmed word */
+		private final String word;
+
+		/** Path to the file */
+		private final String path;
+
+		/** Comma separated positions */
+		private final String positions;
+
+		/**
+		 * Parses a run line
+		 *
+		 * @param line the line to parse
+		 */
+		public Line(String line) {
+			int first = line.indexOf(SEPARATOR);
+			int last = line.lastIndexOf(SEPARATOR);
+			this.word = line.substring(0, first);
+			this.path = line.substring(first + 1, last);
+			this.positions = line.substring(last + 1);
+		}
+	}
+
+	/**
+	 * Reader that remembers the current line of a single run
+	 */
+	private static class RunReader implements Comparable<RunReader> {
+
+		/** Reader for the run file */
+		private final BufferedReader reader;
+
+		/** Current line of the run, or null if the run is exhausted */
+		private Line current;
+
+		/**
+		 * Opens the run and reads its first line
+		 *
+		 * @param run the run file
+		 * @throws IOException if unable to read the file
+		 */
+		public RunReader(Path run) throws IOException {
+			this.reader = Files.newBufferedReader(run, StandardCharsets.UTF_8);
+			advance();
+		}
+
+		/**
+		 * Moves to the next line of the run
+		 *
+		 * @throws IOException if unable to read the file
+		 */
+		public void advance() throws IOException {
+			String line = reader.readLine();
+			current = line == null ? null : new Line(line);
+		}
+
+		@Override
+		public int compareTo(RunReader other) {
+			int compare = this.current.word.compareTo(other.current.word);
+			if (compare == 0) {
+				return this.current.path.compareTo(other.current.path);
+			}
+			return compare;
+		}
+	}
+
+	/**
+	 * K-way merge over all of the runs using a priority queue of run readers
+	 */
+	private static class Merger implements AutoCloseable {
+
+		/** Run readers ordered by their current word and path */
+		private final PriorityQueue<RunReader> queue;
+
+		/** Every run reader, so they can be closed */
+		private final List<RunReader> readers;
+
+		/**
+		 * Opens every run
+		 *
+		 * @param runs the run files to merge
+		 * @throws IOException if unable to read the files
+		 */
+		public Merger(List<Path> runs) throws IOException {
+			this.queue = new PriorityQueue<>(Math.max(1, runs.size()));
+			this.readers = new ArrayList<>();
+			for (Path run : runs) {
+				RunReader reader = new RunReader(run);
+				readers.add(reader);
+				if (reader.current != null) {
+					queue.add(reader);
+				}
+			}
+		}
+
+		/**
+		 * Checks to see if there are words left to merge
+		 *
+		 * @return true if any run has lines left
+		 */
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		/**
+		 * Returns the smallest word left in the runs
+		 *
+		 * @return smallest word left in the runs
+		 */
+		public String nextWord() {
+			return queue.peek().current.word;
+		}
+
+		/**
+		 * Removes every line for the word from the runs and combines them
+		 *
+		 * @param word the smallest word left in the runs
+		 * @return paths mapped to positions for the word
+		 * @throws IOException if unable to read the runs
+		 */
+		public TreeMap<String, TreeSet<Integer>> postings(String word) throws IOException {
+			TreeMap<String, TreeSet<Integer>> postings = new TreeMap<>();
+			while (!queue.isEmpty() && queue.peek().current.word.equals(word)) {
+				RunReader reader = queue.poll();
+				TreeSet<Integer> positions = postings.computeIfAbsent(reader.current.path, path -> new TreeSet<>());
+				for (String position : reader.current.positions.split(",")) {
+					positions.add(Integer.parseInt(position));
+				}
+				reader.advance();
+				if (reader.current != null) {
+					queue.add(reader);
+				}
+			}
+			return postings;
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (RunReader reader : readers) {
+				reader.reader.close();
+			}
+		}
+	}
+}
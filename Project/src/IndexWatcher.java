@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Watches a directory tree and keeps the inverted index up to date as text files
+ * are created, modified, or deleted. Events are debounced and applied in batches
+ * so a burst of writes results in a single index update.
+ *
+ * @author EricChen
+ */
+public class IndexWatcher {
+
+	/** Default number of milliseconds without events before a batch is applied */
+	public static final long DEFAULT_DEBOUNCE = 500;
+
+	/** Number of debounce periods a batch may be delayed by a steady stream of events */
+	private static final int MAX_DELAY = 10;
+
+	/** Inverted index to keep up to date */
+	private final InvertedIndex index;
+
+	/** Watch service for the directory tree */
+	private final WatchService watcher;
+
+	/** Watch keys mapped to the directory they were registered for */
+	private final Map<WatchKey, Path> keys;
+
+	/** Number of milliseconds without events before a batch is applied */
+	private final long debounce;
+
+	/**
+	 * Listener called after each batch of changes has been applied to the index
+	 */
+	public interface Listener {
+
+		/**
+		 * Called after a batch of changes has been applied to the index
+		 *
+		 * @param changed the files that were added, modified, or removed
+		 */
+		public void updated(TreeSet<Path> changed);
+	}
+
+	/**
+	 * Constructor for the watcher which registers every directory under the root
+	 *
+	 * @param index	inverted index to keep up to date
+	 * @param root	directory to watch
+	 * @param debounce	number of milliseconds without events before a batch is applied
+	 * @throws IOException if unable to register the directories
+	 */
+	public IndexWatcher(InvertedIndex index, Path root, long debounce) throws IOException {
+		this.index = index;
+		this.watcher = FileSystems.getDefault().newWatchService();
+		this.keys = new HashMap<>();
+		this.debounce = debounce;
+		register(root);
+	}
+
+	/**
+	 * Waits for changes and applies them to the index in batches until the thread is interrupted
+	 *
+	 * @param listener	listener called after each batch
+	 * @throws IOException if unable to read a changed file
+	 */
+	public void watch(Listener listener) throws IOException {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				TreeSet<Path> changed = new TreeSet<>();
+				WatchKey key = watcher.take();
+				long deadline = System.currentTimeMillis() + debounce * MAX_DELAY;
+
+				while (key != null) {
+					collect(key, changed);
+					long wait = Math.min(debounce, deadline - System.currentTimeMillis());
+					key = wait > 0 ? watcher.poll(wait, TimeUnit.MILLISECONDS) : null;
+				}
+
+				if (!changed.isEmpty()) {
+					apply(changed);
+					listener.updated(changed);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			watcher.close();
+		}
+	}
+
+	/**
+	 * Adds the files affected by the events of a watch key to the batch
+	 *
+	 * A deleted path that is not a text file is treated as a directory, and every
+	 * indexed file under it is removed.
+	 *
+	 * @param key	watch key with pending events
+	 * @param changed	files changed in the current batch
+	 * @throws IOException if unable to register a new directory
+	 */
+	private void collect(WatchKey key, TreeSet<Path> changed) throws IOException {
+		Path directory = keys.get(key);
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (directory == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				continue;
+			}
+			Path path = directory.resolve((Path) event.context());
+
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+				register(path);
+				changed.addAll(TextFileFinder.list(path));
+			}
+			else if (IndexBuilder.isTextFile(path)) {
+				changed.add(path);
+			}
+			else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+				changed.addAll(indexed(path));
+			}
+		}
+
+		if (!key.reset()) {
+			keys.remove(key);
+		}
+	}
+
+	/**
+	 * Lists the indexed locations under a directory, since deleting or moving a
+	 * directory away only reports the directory itself
+	 *
+	 * @param directory	directory that was deleted
+	 * @return files under the directory that are in the index
+	 */
+	private List<Path> indexed(Path directory) {
+		String prefix = directory.toString() + directory.getFileSystem().getSeparator();
+		return index.getCounts().keySet().stream()
+				.filter(location -> location.startsWith(prefix))
+				.map(Path::of)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Re-indexes the changed files that still exist and removes the rest from the index
+	 *
+	 * @param changed	files changed in the current batch
+	 */
+	private void apply(TreeSet<Path> changed) {
+		InvertedIndex local = new InvertedIndex();
+		List<String> paths = new ArrayList<>();
+
+		for (Path file : changed) {
+			paths.add(file.toString());
+			if (Files.isRegularFile(file)) {
+				try {
+					IndexBuilder.addFile(file, local);
+				}
+				catch (IOException e) {
+					System.err.printf("File: %s has an error", file.toString());
+				}
+			}
+		}
+
+		index.update(paths, local);
+	}
+
+	/**
+	 * Registers the directory and every directory under it with the watch service
+	 *
+	 * @param start	directory to register
+	 * @throws IOException if unable to register the directories
+	 */
+	private void register(Path start) throws IOException {
+		List<Path> directories;
+		try (Stream<Path> stream = Files.walk(start, FileVisitOption.FOLLOW_LINKS)) {
+			directories = stream.filter(Files::isDirectory).collect(Collectors.toList());
+		}
+		for (Path directory : directories) {
+			WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+			keys.put(key, directory);
+		}
+	}
+}
@@ -1,11 +1,14 @@
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -24,137 +27,1442 @@ public class InvertedIndex {
 	/** TreeMap that maps file path to word count **/
 	private final TreeMap<String, Integer> locations;	//want to map the location to the word count and print in json format that count.json looks like
 
+	/** Number of positions currently held in the index, used to estimate its memory footprint **/
+	private long positions;
+
+	/** Words left out of the index, either from the stop list or for appearing in too many documents **/
+	private final TreeSet<String> stopWords;
+
+	/** Number of positions of the stop words that were left out of the index **/
+	private long stopped;
+
+	/** Largest fraction of the documents a word may appear in before it becomes a stop word, or 0 for no cap **/
+	private volatile double frequencyCap;
+
+	/** Listeners told about the words whose postings change **/
+	private final List<Listener> listeners;
+
+	/** Sorted snapshot of the words and documents used by searches, or null until the next search after the index changes **/
+	private volatile TermDictionary dictionary;
+
+	/** Model used to score exact and partial searches, or null to score by matches divided by word count **/
+	private volatile ScoringModel scoring;
+
+	/** Index of the pieces of the words used by wildcard searches, or null until it is first needed **/
+	private volatile GramIndex grams;
+
+	/** Largest number of words a top results search may expand to and still skip documents that cannot make the cut **/
+	private static final int MAX_SCORE_TERMS = 64;
+
+	/** Relative amount score bounds are loosened by so rounding never skips a document that makes the cut **/
+	private static final double SLACK = 1e-9;
+
 	/** Creates inverted index, locations (file path mapped to word count), and query **/
 	public InvertedIndex() {
 		index = new TreeMap<>();
 		locations = new TreeMap<>();
+		listeners = new ArrayList<>();
+		stopWords = new TreeSet<>();
+	}
+
+	/**
+	 * Listener told about the words whose postings change, for example to keep a cache of search results valid
+	 */
+	public interface Listener {
+
+		/**
+		 * Called after the postings of the words have changed
+		 *
+		 * @param words	words whose postings changed
+		 */
+		public void wordsChanged(Collection<String> words);
+
+		/**
+		 * Called after the locations or their word counts have changed while a scoring model is set,
+		 * since the number of documents and their average length go into every score
+		 */
+		public void locationsChanged();
+	}
+
+	/**
+	 * Sets the model used to score exact and partial searches. Phrase searches are
+	 * always scored by matches divided by word count.
+	 *
+	 * @param scoring	the scoring model, or null to score by matches divided by word count
+	 */
+	public void setScoring(ScoringModel scoring) {
+		this.scoring = scoring;
+		locationsChanged();
+	}
+
+	/**
+	 * Returns the model used to score exact and partial searches
+	 *
+	 * @return	the scoring model, or null if scoring by matches divided by word count
+	 */
+	public ScoringModel getScoring() {
+		return scoring;
+	}
+
+	/**
+	 * Starts keeping the index of the pieces of the words used by wildcard searches, so it is built
+	 * while the inverted index is built rather than by the first wildcard search. Words that are
+	 * spilled to disk stay in the index of pieces.
+	 */
+	public void indexGrams() {
+		getGrams();
+	}
+
+	/**
+	 * Writes the index of the pieces of the words to a file that {@link GramIndex#read(Path)} can read
+	 *
+	 * @param path	the location of the file
+	 * @throws IOException	if unable to write the file
+	 */
+	public void writeGrams(Path path) throws IOException {
+		getGrams().write(path);
+	}
+
+	/**
+	 * Returns the index of the pieces of the words, building it from the words of the index the first time
+	 *
+	 * @return	index of the pieces of the words
+	 */
+	private GramIndex getGrams() {
+		GramIndex local = grams;
+		if (local == null) {
+			synchronized (this) {
+				local = grams;
+				if (local == null) {
+					local = new GramIndex(index.keySet());
+					grams = local;
+				}
+			}
+		}
+		return local;
+	}
+
+	/**
+	 * Adds a listener told about the words whose postings change
+	 *
+	 * @param listener	listener to add
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Tells the listeners about the words whose postings changed
+	 *
+	 * @param words	words whose postings changed
+	 */
+	private void wordsChanged(Collection<String> words) {
+		for (Listener listener : listeners) {
+			listener.wordsChanged(words);
+		}
+	}
+
+	/**
+	 * Tells the listeners that the locations or their word counts changed, if that changes every score
+	 */
+	private void locationsChanged() {
+		if (scoring != null) {
+			for (Listener listener : listeners) {
+				listener.locationsChanged();
+			}
+		}
+	}
+
+	/**
+	 * Adds word and file path to the inverted index and updates indexCount
+	 *
+	 * @param word the word that we are adding
+	 * @param file the location of the file
+	 * @param indexCount counter for what index the word is in
+	 */
+	public void add(String word, String file, int indexCount) {
+		Integer count = locations.get(file);
+		if (stopWords.contains(word)) {
+			stopped++;
+			if (!locations.merge(file, indexCount, Math::max).equals(count) && !listeners.isEmpty()) {
+				locationsChanged();
+			}
+			return;
+		}
+		if (index.putIfAbsent(word, new TreeMap<String, TreeSet<Integer>>()) == null && grams != null) {
+			grams.add(word);
+		}
+		index.get(word).putIfAbsent(file, new TreeSet<Integer>());
+		boolean updatingCount = index.get(word).get(file).add(indexCount);
+		locations.putIfAbsent(file, 0);
+
+		if(updatingCount) {
+			positions++;
+			if(dictionary != null) {
+				dictionary = null;
+			}
+			locations.put(file, Math.max(locations.get(file), indexCount));
+			if(!listeners.isEmpty()) {
+				wordsChanged(Collections.singleton(word));
+			}
+		}
+		if (!listeners.isEmpty() && !locations.get(file).equals(count)) {
+			locationsChanged();
+		}
+	}
+
+	/**
+	 * Adds word, location, and index count into the inverted index all at once rather than one at a time
+	 * @param otherIndex	passed in inverted index
+	 */
+	public void addAll(InvertedIndex otherIndex) {
+		merge(otherIndex);
+	}
+
+	/**
+	 * Adds every location and position of a word all at once, keeping the given sets of positions
+	 * rather than copying them. The word count of each location grows to its highest position.
+	 * @param word	the stemmed word
+	 * @param postings	locations mapped to the positions of the word, which must not be changed afterwards
+	 */
+	public void addAll(String word, TreeMap<String, TreeSet<Integer>> postings) {
+		dictionary = null;
+		mergeWord(word, postings);
+		boolean grown = false;
+		for (Map.Entry<String, TreeSet<Integer>> entry : postings.entrySet()) {
+			Integer count = locations.get(entry.getKey());
+			grown |= !locations.merge(entry.getKey(), entry.getValue().last(), Math::max).equals(count);
+		}
+		if (!listeners.isEmpty()) {
+			wordsChanged(Collections.singleton(word));
+			if (grown) {
+				locationsChanged();
+			}
+		}
+	}
+
+	/**
+	 * Merges the locations and positions of a single word into this index, without updating the word counts
+	 * @param word	the stemmed word
+	 * @param postings	locations mapped to the positions of the word
+	 */
+	private void mergeWord(String word, TreeMap<String, TreeSet<Integer>> postings) {
+		if (stopWords.contains(word)) {
+			for (TreeSet<Integer> set : postings.values()) {
+				stopped += set.size();
+			}
+		}
+		else if (this.index.containsKey(word) == false) {
+			this.index.put(word, postings);
+			if (grams != null) {
+				grams.add(word);
+			}
+			for (TreeSet<Integer> set : postings.values()) {
+				positions += set.size();
+			}
+		}
+		else {
+			for (String location:postings.keySet()) {
+				if (this.index.get(word).containsKey(location) == false) {
+					this.index.get(word).put(location, postings.get(location));
+					positions += postings.get(location).size();
+				}
+				else {
+					TreeSet<Integer> set = this.index.get(word).get(location);
+					int before = set.size();
+					set.addAll(postings.get(location));
+					positions += set.size() - before;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merges the other index into this one. Kept private so {@link #update(Collection, InvertedIndex)}
+	 * does not call back into a subclass that already holds its lock.
+	 * @param otherIndex	passed in inverted index
+	 */
+	private void merge(InvertedIndex otherIndex) {
+		dictionary = null;
+		for (String word:otherIndex.index.keySet()) {
+			mergeWord(word, otherIndex.index.get(word));
+		}
+		for (String path:otherIndex.locations.keySet()) {
+			if (this.locations.containsKey(path) == false) {
+				this.locations.put(path, otherIndex.locations.get(path));
+			}
+			else {
+				this.locations.put(path, Math.max(this.locations.get(path), otherIndex.locations.get(path)));
+			}
+		}
+		if (!listeners.isEmpty()) {
+			wordsChanged(otherIndex.index.keySet());
+			if (!otherIndex.locations.isEmpty()) {
+				locationsChanged();
+			}
+		}
+	}
+
+	/**
+	 * Removes every word position and word count stored for the given files
+	 *
+	 * @param paths	file paths to remove from the inverted index
+	 */
+	public void removeAll(Collection<String> paths) {
+		remove(paths);
+	}
+
+	/**
+	 * Removes the files from the index. Kept private so {@link #update(Collection, InvertedIndex)}
+	 * does not call back into a subclass that already holds its lock.
+	 *
+	 * @param paths	file paths to remove from the inverted index
+	 */
+	private void remove(Collection<String> paths) {
+		if (paths.isEmpty()) {
+			return;
+		}
+		dictionary = null;
+		List<String> changed = new ArrayList<>();
+		Iterator<Map.Entry<String, TreeMap<String, TreeSet<Integer>>>> words = index.entrySet().iterator();
+		while (words.hasNext()) {
+			Map.Entry<String, TreeMap<String, TreeSet<Integer>>> entry = words.next();
+			TreeMap<String, TreeSet<Integer>> postings = entry.getValue();
+			for (String path : paths) {
+				TreeSet<Integer> removed = postings.remove(path);
+				if (removed != null) {
+					positions -= removed.size();
+					changed.add(entry.getKey());
+				}
+			}
+			if (postings.isEmpty()) {
+				words.remove();
+				if (grams != null) {
+					grams.remove(entry.getKey());
+				}
+			}
+		}
+		boolean removed = false;
+		for (String path : paths) {
+			removed |= locations.remove(path) != null;
+		}
+		if (!changed.isEmpty()) {
+			wordsChanged(changed);
+		}
+		if (removed) {
+			locationsChanged();
+		}
+	}
+
+	/**
+	 * Replaces the given files in the inverted index with the contents of another index
+	 *
+	 * @param paths	file paths to remove from the inverted index
+	 * @param otherIndex	passed in inverted index holding the new contents of the files
+	 */
+	public void update(Collection<String> paths, InvertedIndex otherIndex) {
+		remove(paths);
+		merge(otherIndex);
+	}
+
+	/**
+	 * Leaves the words out of the index from now on and removes their postings. Word counts
+	 * still include the stop words, so the scores of the other words do not change.
+	 *
+	 * @param words	stemmed words to leave out of the index
+	 */
+	public void setStopWords(Collection<String> words) {
+		stopWords.addAll(words);
+		drop(words);
+	}
+
+	/**
+	 * Sets the largest fraction of the documents a word may appear in. Words over the cap
+	 * are turned into stop words by {@link #capFrequency()}, since they add little to the
+	 * ranking while holding most of the postings.
+	 *
+	 * @param fraction	largest fraction of the documents a word may appear in, or 0 for no cap
+	 */
+	public void setFrequencyCap(double fraction) {
+		this.frequencyCap = fraction;
+	}
+
+	/**
+	 * Turns the words appearing in more documents than the frequency cap allows into stop words.
+	 * The cap is measured against every document in the index, so it is applied once the index
+	 * is built rather than while words are added.
+	 *
+	 * @return	number of words that became stop words
+	 */
+	public int capFrequency() {
+		List<String> frequent = new ArrayList<>();
+		for (Map.Entry<String, TreeMap<String, TreeSet<Integer>>> entry : index.entrySet()) {
+			if (frequent(entry.getValue().size())) {
+				frequent.add(entry.getKey());
+			}
+		}
+		stopWords.addAll(frequent);
+		drop(frequent);
+		return frequent.size();
+	}
+
+	/**
+	 * Checks to see if a word in the given number of documents is over the frequency cap
+	 *
+	 * @param documents	number of documents containing the word
+	 * @return	true if there is a cap and the word appears in more documents than it allows
+	 */
+	public boolean isFrequent(int documents) {
+		return frequent(documents);
+	}
+
+	/**
+	 * Checks the number of documents against the frequency cap. Kept private so the
+	 * methods holding the lock of a subclass do not call back into it.
+	 *
+	 * @param documents	number of documents containing a word
+	 * @return	true if there is a cap and the word appears in more documents than it allows
+	 */
+	private boolean frequent(int documents) {
+		double cap = frequencyCap;
+		return cap > 0 && documents > cap * locations.size();
+	}
+
+	/**
+	 * Checks to see if the word is left out of the index
+	 *
+	 * @param word	the stemmed word
+	 * @return	true if the word is a stop word
+	 */
+	public boolean isStopWord(String word) {
+		return stopWords.contains(word);
+	}
+
+	/**
+	 * Returns the words left out of the index
+	 *
+	 * @return	unmodifiable set of the stop words
+	 */
+	public Set<String> getStopWords() {
+		return Collections.unmodifiableSet(stopWords);
+	}
+
+	/**
+	 * Returns the number of positions of the stop words that were left out of the index
+	 *
+	 * @return	number of positions left out
+	 */
+	public long numStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Removes the postings of the words from the index
+	 *
+	 * @param words	words to remove
+	 */
+	private void drop(Collection<String> words) {
+		List<String> changed = new ArrayList<>();
+		for (String word : words) {
+			TreeMap<String, TreeSet<Integer>> postings = index.remove(word);
+			if (postings != null) {
+				for (TreeSet<Integer> set : postings.values()) {
+					positions -= set.size();
+					stopped += set.size();
+				}
+				if (grams != null) {
+					grams.remove(word);
+				}
+				changed.add(word);
+			}
+		}
+		if (!changed.isEmpty()) {
+			dictionary = null;
+			wordsChanged(changed);
+		}
+	}
+
+	/**
+	 * Chooses whether to perform an exact or partial search
+	 * @param queries	collection of stemmed words to search through
+	 * @param exact		boolean to decide whether to perform exact or partial search
+	 * @return	list of search result objects
+	 */
+	public List<SearchResult> genericSearch(Collection<String> queries, boolean exact) {
+		return genericSearch(queries, exact, 0);
+	}
+
+	/**
+	 * Chooses whether to perform an exact or partial search, keeping only the best results
+	 * @param queries	collection of stemmed words to search through
+	 * @param exact		boolean to decide whether to perform exact or partial search
+	 * @param limit		maximum number of results to return, or 0 to return every result
+	 * @return	list of search result objects
+	 */
+	public List<SearchResult> genericSearch(Collection<String> queries, boolean exact, int limit) {
+		if (exact) {
+			return exactSearch(queries, limit);
+		}
+		else {
+			return partialSearch(queries, limit);
+		}
+	}
+
+	/**
+	 * Searches for words in map of stemmed words that matches exactly with the word we're looking for
+	 * and adding it to list of search result objects
+	 *
+	 * @param queries collection of strings that holds stemmed words to search through
+	 * @return	list of search result objects to get desired output
+	 */
+	public List<SearchResult> exactSearch(Collection<String> queries){
+		return exactSearch(queries, 0);
+	}
+
+	/**
+	 * Searches for words in map of stemmed words that matches exactly with the word we're looking for
+	 * and keeps only the best results
+	 *
+	 * @param queries collection of strings that holds stemmed words to search through
+	 * @param limit	maximum number of results to return, or 0 to return every result
+	 * @return	sorted list of at most limit search result objects
+	 */
+	public List<SearchResult> exactSearch(Collection<String> queries, int limit){
+		TermDictionary terms = getDictionary();
+		int[] ranges = new int[queries.size() * 2];
+		int i = 0;
+
+		for (String words : queries) {
+			int id = terms.find(words);
+			ranges[i++] = Math.max(id, 0);
+			ranges[i++] = id + 1;
+		}
+		return evaluate(terms, ranges, limit);
+	}
+
+	/**
+	 * Searches for words in map of stemmed words that starts with the word we're looking for
+	 * and adding it to list of search result objects
+	 *
+	 * @param queries collection of strings that holds stemmed words to search through
+	 * @return	list of search result objects to get desired output
+	 */
+	public List<SearchResult> partialSearch(Collection<String> queries){
+		return partialSearch(queries, 0);
+	}
+
+	/**
+	 * Searches for words in map of stemmed words that starts with the word we're looking for
+	 * and keeps only the best results. A stop word in the query matches nothing, rather than
+	 * every word it starts.
+	 *
+	 * @param queries collection of strings that holds stemmed words to search through
+	 * @param limit	maximum number of results to return, or 0 to return every result
+	 * @return	sorted list of at most limit search result objects
+	 */
+	public List<SearchResult> partialSearch(Collection<String> queries, int limit){
+		TermDictionary terms = getDictionary();
+		int[] ranges = new int[queries.size() * 2];
+		int i = 0;
+
+		for (String words : queries) {
+			int start = terms.start(words);
+			ranges[i++] = start;
+			ranges[i++] = stopWords.contains(words) ? start : terms.end(words);
+		}
+		return evaluate(terms, ranges, limit);
+	}
+
+	/**
+	 * Searches for the words matching wildcard patterns such as {@code *tion} or {@code net*work}. Patterns
+	 * are resolved to words through the index of the pieces of the words, and the other words of the query
+	 * are searched exactly or as prefixes.
+	 *
+	 * @param queries	stemmed words and lowercase patterns with {@code *} matching any run of letters
+	 * @param exact	boolean to decide whether words without a wildcard are searched exactly or as prefixes
+	 * @return	sorted list of search result objects
+	 */
+	public List<SearchResult> wildcardSearch(Collection<String> queries, boolean exact) {
+		return wildcardSearch(queries, exact, 0);
+	}
+
+	/**
+	 * Searches for the words matching wildcard patterns and keeps only the best results
+	 *
+	 * @param queries	stemmed words and lowercase patterns with {@code *} matching any run of letters
+	 * @param exact	boolean to decide whether words without a wildcard are searched exactly or as prefixes
+	 * @param limit	maximum number of results to return, or 0 to return every result
+	 * @return	sorted list of at most limit search result objects
+	 *
+	 * @see #wildcardSearch(Collection, boolean)
+	 */
+	public List<SearchResult> wildcardSearch(Collection<String> queries, boolean exact, int limit) {
+		TermDictionary terms = getDictionary();
+		TreeSet<Integer> ids = new TreeSet<>();
+
+		for (String words : queries) {
+			if (words.indexOf(GramIndex.WILDCARD) < 0) {
+				if (stopWords.contains(words)) {
+					continue;
+				}
+				int start = exact ? terms.find(words) : terms.start(words);
+				int end = exact ? start + 1 : terms.end(words);
+				for (int id = Math.max(start, 0); id < end && !SearchDeadline.expired(id); id++) {
+					ids.add(id);
+				}
+				continue;
+			}
+
+			List<String> found = getGrams().find(words);
+			if (found != null) {
+				for (String word : found) {
+					int id = terms.find(word);
+					if (id >= 0) {
+						ids.add(id);
+					}
+				}
+				continue;
+			}
+
+			String prefix = words.substring(0, words.indexOf(GramIndex.WILDCARD));
+			for (int id = terms.start(prefix); id < terms.end(prefix) && !SearchDeadline.expired(id); id++) {
+				if (GramIndex.matches(words, terms.getTerm(id))) {
+					ids.add(id);
+				}
+			}
+		}
+
+		int[] ranges = new int[ids.size() * 2];
+		int i = 0;
+		for (int id : ids) {
+			ranges[i++] = id;
+			ranges[i++] = id + 1;
+		}
+		return evaluate(terms, ranges, limit);
+	}
+
+	/**
+	 * Searches for the words within a number of edits of the query words, so misspelled words still
+	 * find results. The matching words are found by walking the sorted dictionary with a Levenshtein
+	 * automaton for each query word, skipping every word that starts with a prefix that cannot match.
+	 *
+	 * @param queries collection of strings that holds stemmed words to search for
+	 * @param distance	number of insertions, deletions, and substitutions allowed, at most {@link LevenshteinAutomaton#MAX_DISTANCE}
+	 * @return	sorted list of search result objects
+	 */
+	public List<SearchResult> fuzzySearch(Collection<String> queries, int distance) {
+		return fuzzySearch(queries, distance, 0);
+	}
+
+	/**
+	 * Searches for the words within a number of edits of the query words and keeps only the best results
+	 *
+	 * @param queries collection of strings that holds stemmed words to search for
+	 * @param distance	number of insertions, deletions, and substitutions allowed, at most {@link LevenshteinAutomaton#MAX_DISTANCE}
+	 * @param limit	maximum number of results to return, or 0 to return every result
+	 * @return	sorted list of at most limit search result objects
+	 *
+	 * @see #fuzzySearch(Collection, int)
+	 */
+	public List<SearchResult> fuzzySearch(Collection<String> queries, int distance, int limit) {
+		TermDictionary terms = getDictionary();
+		TreeSet<Integer> ids = new TreeSet<>();
+
+		for (String words : queries) {
+			for (int id : terms.findSimilar(words, distance)) {
+				ids.add(id);
+			}
+		}
+
+		int[] ranges = new int[ids.size() * 2];
+		int i = 0;
+		for (int id : ids) {
+			ranges[i++] = id;
+			ranges[i++] = id + 1;
+		}
+		return evaluate(terms, ranges, limit);
+	}
+
+	/**
+	 * Scores the documents containing the words in the ranges and returns the best ones. Top results
+	 * searches under a scoring model skip the documents that cannot make the cut when the ranges hold
+	 * few enough words, and every other search adds up every posting.
+	 *
+	 * @param terms	dictionary the word numbers belong to
+	 * @param ranges	pairs of the first word number and the number after the last word of each range
+	 * @param limit	maximum number of results to return, or 0 to return every result
+	 * @return	sorted list of search result objects
+	 */
+	private List<SearchResult> evaluate(TermDictionary terms, int[] ranges, int limit) {
+		ScoringModel model = scoring;
+		if (model != null && limit > 0) {
+			int words = 0;
+			for (int i = 0; i < ranges.length; i += 2) {
+				words += Math.max(0, ranges[i + 1] - ranges[i]);
+			}
+			if (words <= MAX_SCORE_TERMS) {
+				int[] ids = new int[words];
+				int j = 0;
+				for (int i = 0; i < ranges.length; i += 2) {
+					for (int id = ranges[i]; id < ranges[i + 1]; id++) {
+						ids[j++] = id;
+					}
+				}
+				return maxScore(terms, ids, terms.getImpacts(model), limit);
+			}
+		}
+		return rank(accumulate(terms, ranges), terms, limit);
+	}
+
+	/**
+	 * Finds the best documents with MaxScore. The words are ordered by the largest weight they give any
+	 * document. The words with the smallest weights, whose combined weight cannot reach the worst result
+	 * kept so far, stop producing candidates and are only looked up in documents found through the other
+	 * words. The posting lists are walked together in document order, and each candidate's score is
+	 * added up in the same word order as {@link #accumulate(TermDictionary, int[])}, so the results match
+	 * scoring every document.
+	 *
+	 * @param terms	dictionary the word numbers belong to
+	 * @param ids	numbers of the words, in the order their weights are added up
+	 * @param impacts	weights of the postings under the scoring model
+	 * @param limit	maximum number of results to return
+	 * @return	sorted list of search result objects
+	 */
+	private List<SearchResult> maxScore(TermDictionary terms, int[] ids, TermDictionary.Impacts impacts, int limit) {
+		int n = ids.length;
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (one, two) -> Double.compare(impacts.getMax(ids[one]), impacts.getMax(ids[two])));
+
+		double[] bound = new double[n];
+		for (int j = 0; j < n; j++) {
+			bound[j] = (j > 0 ? bound[j - 1] : 0) + impacts.getMax(ids[order[j]]);
+		}
+
+		int[] cursor = new int[n];
+		PriorityQueue<SearchResult> heap = new PriorityQueue<>(limit + 1, Collections.reverseOrder());
+		double threshold = 0;
+		int essential = 0;
+		int steps = 0;
+
+		while (!SearchDeadline.expired(++steps)) {
+			while (heap.size() == limit && essential < n && bound[essential] < threshold * (1 - SLACK)) {
+				essential++;
+			}
+
+			int doc = Integer.MAX_VALUE;
+			for (int j = essential; j < n; j++) {
+				int[] docs = terms.getDocs(ids[order[j]]);
+				if (cursor[order[j]] < docs.length) {
+					doc = Math.min(doc, docs[cursor[order[j]]]);
+				}
+			}
+			if (doc == Integer.MAX_VALUE) {
+				break;
+			}
+
+			double upper = essential > 0 ? bound[essential - 1] : 0;
+			for (int j = essential; j < n; j++) {
+				int i = order[j];
+				int[] docs = terms.getDocs(ids[i]);
+				if (cursor[i] < docs.length && docs[cursor[i]] == doc) {
+					upper += impacts.get(ids[i])[cursor[i]];
+				}
+			}
+
+			if (heap.size() < limit || upper >= threshold * (1 - SLACK)) {
+				int count = 0;
+				double score = 0;
+				for (int i = 0; i < n; i++) {
+					int[] docs = terms.getDocs(ids[i]);
+					cursor[i] = seek(docs, cursor[i], doc);
+					if (cursor[i] < docs.length && docs[cursor[i]] == doc) {
+						count += terms.getFreqs(ids[i])[cursor[i]];
+						score += impacts.get(ids[i])[cursor[i]];
+					}
+				}
+				String path = terms.getPath(doc);
+				if (heap.size() < limit || compare(score, count, path, heap.peek()) < 0) {
+					heap.add(new SearchResult(path, count, score));
+					if (heap.size() > limit) {
+						heap.poll();
+					}
+					if (heap.size() == limit) {
+						threshold = heap.peek().score;
+					}
+				}
+			}
+
+			for (int j = essential; j < n; j++) {
+				int i = order[j];
+				int[] docs = terms.getDocs(ids[i]);
+				if (cursor[i] < docs.length && docs[cursor[i]] == doc) {
+					cursor[i]++;
+				}
+			}
+		}
+
+		List<SearchResult> results = new ArrayList<>(heap);
+		Collections.sort(results);
+		return results;
 	}
 
 	/**
-	 * Adds word and file path to the inverted index and updates indexCount
+	 * Finds the first position at or after the start whose document number is at least the target,
+	 * galloping ahead in growing steps before searching between the last two steps
 	 *
-	 * @param word the word that we are adding
-	 * @param file the location of the file
-	 * @param indexCount counter for what index the word is in
+	 * @param docs	sorted document numbers
+	 * @param from	position to start from
+	 * @param doc	document number to find
+	 * @return	position of the first document number at least the target, or the length if there is none
 	 */
-	public void add(String word, String file, int indexCount) {
-		index.putIfAbsent(word, new TreeMap<String, TreeSet<Integer>>());
-		index.get(word).putIfAbsent(file, new TreeSet<Integer>());
-		boolean updatingCount = index.get(word).get(file).add(indexCount);
-		locations.putIfAbsent(file, 0);
-
-		if(updatingCount) {
-			locations.put(file, Math.max(locations.get(file), indexCount));
+	static int seek(int[] docs, int from, int doc) {
+		int low = from;
+		int high = from;
+		int step = 1;
+		while (high < docs.length && docs[high] < doc) {
+			low = high + 1;
+			high += step;
+			step <<= 1;
+		}
+		high = Math.min(high, docs.length);
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (docs[middle] < doc) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
 		}
+		return low;
 	}
 
 	/**
-	 * Adds word, location, and index count into the inverted index all at once rather than one at a time
-	 * @param otherIndex	passed in inverted index
+	 * Searches for a batch of queries at once. Each distinct word or prefix is looked up once for the
+	 * whole batch, and then the queries are scored one after another in the accumulator of the calling
+	 * thread, so a batch holds no more memory than a single search. Stop words in the queries are skipped.
+	 *
+	 * @param queries	collections of stemmed words to search for, one for each query
+	 * @param exact		boolean to decide whether to perform exact or partial search
+	 * @param limit		maximum number of results to return for each query, or 0 to return every result
+	 * @return	sorted list of search result objects for each query, in the same order as the queries
 	 */
-	public void addAll(InvertedIndex otherIndex) {
-		for (String word:otherIndex.index.keySet()) {
-			if (this.index.containsKey(word) == false) {
-				this.index.put(word, otherIndex.index.get(word));
+	public List<List<SearchResult>> batchSearch(List<? extends Collection<String>> queries, boolean exact, int limit) {
+		return batchSearch(queries, exact, limit, 0, null);
+	}
+
+	/**
+	 * Searches for a batch of queries at once, giving each query a deadline of its own that starts when
+	 * the query is scored, so a query that runs out of time does not cut short the ones after it.
+	 *
+	 * @param queries	collections of stemmed words to search for, one for each query
+	 * @param exact		boolean to decide whether to perform exact or partial search
+	 * @param limit		maximum number of results to return for each query, or 0 to return every result
+	 * @param deadline	milliseconds each query may be scored for, or 0 to search under the deadline of the calling thread
+	 * @param truncated	set to the positions of the queries that ran out of time, or null if they are not needed
+	 * @return	sorted list of search result objects for each query, in the same order as the queries
+	 *
+	 * @see #batchSearch(List, boolean, int)
+	 */
+	public List<List<SearchResult>> batchSearch(List<? extends Collection<String>> queries, boolean exact, int limit, long deadline, BitSet truncated) {
+		TermDictionary terms = getDictionary();
+		TreeMap<String, int[]> ranges = new TreeMap<>();
+		for (Collection<String> query : queries) {
+			for (String words : query) {
+				if (!stopWords.contains(words) && !ranges.containsKey(words)) {
+					int start = exact ? terms.find(words) : terms.start(words);
+					int end = exact ? start + 1 : terms.end(words);
+					ranges.put(words, new int[] {Math.max(start, 0), end});
+				}
 			}
-			else {
-				for (String location:otherIndex.index.get(word).keySet()) {
-					if (this.index.get(word).containsKey(location) == false) {
-						this.index.get(word).put(location, otherIndex.index.get(word).get(location));
+		}
+
+		ScoringModel model = scoring;
+		TermDictionary.Impacts impacts = model != null ? terms.getImpacts(model) : null;
+		List<List<SearchResult>> results = new ArrayList<>(queries.size());
+		for (Collection<String> query : queries) {
+			SearchDeadline own = deadline > 0 ? new SearchDeadline(deadline) : SearchDeadline.current();
+			SearchDeadline previous = SearchDeadline.enter(own);
+			try {
+				ScoreAccumulator accumulator = ScoreAccumulator.get(terms.getDocumentCount());
+				for (String words : query) {
+					int[] range = ranges.get(words);
+					if (range == null) {
+						continue;
 					}
-					else {
-						this.index.get(word).get(location).addAll(otherIndex.index.get(word).get(location));
+					for (int id = range[0]; id < range[1] && !SearchDeadline.expired(); id++) {
+						accumulator.addAll(terms.getDocs(id), terms.getFreqs(id), impacts != null ? impacts.get(id) : null);
 					}
 				}
+				if (truncated != null && own != null && own.isExpired()) {
+					truncated.set(results.size());
+				}
+				results.add(rank(accumulator, terms, limit));
+			}
+			finally {
+				SearchDeadline.exit(previous);
 			}
 		}
-		for (String path:otherIndex.locations.keySet()) {
-			if (this.locations.containsKey(path) == false) {
-				this.locations.put(path, otherIndex.locations.get(path));
+		return results;
+	}
+
+	/**
+	 * Adds up the matches of every word in the ranges of word numbers, in order
+	 *
+	 * @param terms	dictionary the word numbers belong to
+	 * @param ranges	pairs of the first word number and the number after the last word of each range
+	 * @return	accumulator of the calling thread holding the match counts
+	 */
+	protected ScoreAccumulator accumulate(TermDictionary terms, int[] ranges) {
+		return accumulate(terms, ranges, 0, terms.getDocumentCount());
+	}
+
+	/**
+	 * Adds up the matches of every word in the ranges of word numbers, in order, counting only the
+	 * documents numbered from the first up to the last
+	 *
+	 * @param terms	dictionary the word numbers belong to
+	 * @param ranges	pairs of the first word number and the number after the last word of each range
+	 * @param first	number of the first document to count
+	 * @param last	number after the last document to count
+	 * @return	accumulator of the calling thread holding the match counts
+	 */
+	protected final ScoreAccumulator accumulate(TermDictionary terms, int[] ranges, int first, int last) {
+		ScoringModel model = scoring;
+		TermDictionary.Impacts impacts = model != null ? terms.getImpacts(model) : null;
+		ScoreAccumulator scores = ScoreAccumulator.get(terms.getDocumentCount());
+		boolean all = first == 0 && last == terms.getDocumentCount();
+		for (int i = 0; i < ranges.length; i += 2) {
+			for (int id = ranges[i]; id < ranges[i + 1] && !SearchDeadline.expired(); id++) {
+				int[] docs = terms.getDocs(id);
+				int from = all ? 0 : seek(docs, 0, first);
+				int to = all ? docs.length : seek(docs, from, last);
+				scores.addAll(docs, terms.getFreqs(id), impacts != null ? impacts.get(id) : null, from, to);
+			}
+		}
+		return scores;
+	}
+
+	/**
+	 * Searches for documents where the terms appear next to each other in order, or when a distance
+	 * is given, where every term appears within that many words of the first term. Documents containing
+	 * every term are found by leapfrogging through the sorted posting lists from the rarest term, and only
+	 * those documents have their positions checked. Stop words match any word in their place in a phrase
+	 * and are ignored by a proximity search, since their positions are not kept.
+	 *
+	 * @param terms	stemmed words of the phrase in order
+	 * @param distance	maximum distance between the first term and the others, or 0 for an exact phrase
+	 * @return	list of search result objects to get desired output
+	 */
+	public List<SearchResult> phraseSearch(List<String> terms, int distance) {
+		return phraseSearch(terms, distance, 0);
+	}
+
+	/**
+	 * Searches for documents where the terms appear next to each other in order, or within the
+	 * distance, and keeps only the best results
+	 *
+	 * @param terms	stemmed words of the phrase in order
+	 * @param distance	maximum distance between the first term and the others, or 0 for an exact phrase
+	 * @param limit	maximum number of results to return, or 0 to return every result
+	 * @return	sorted list of at most limit search result objects
+	 *
+	 * @see #phraseSearch(List, int)
+	 */
+	public List<SearchResult> phraseSearch(List<String> terms, int distance, int limit) {
+		List<TreeMap<String, TreeSet<Integer>>> postings = new ArrayList<>();
+		List<TreeMap<String, TreeSet<Integer>>> rarest = new ArrayList<>();
+
+		for (String term : terms) {
+			if (stopWords.contains(term)) {
+				if (distance == 0) {
+					postings.add(null);
+				}
+				continue;
+			}
+			if (!index.containsKey(term)) {
+				return new ArrayList<>();
+			}
+			postings.add(index.get(term));
+			rarest.add(index.get(term));
+		}
+		if (rarest.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		TermDictionary snapshot = getDictionary();
+		ScoreAccumulator scores = ScoreAccumulator.get(snapshot.getDocumentCount());
+		rarest.sort((one, two) -> Integer.compare(one.size(), two.size()));
+		String candidate = rarest.get(0).firstKey();
+		int steps = 0;
+
+		while (candidate != null && !SearchDeadline.expired(++steps)) {
+			String next = candidate;
+			for (TreeMap<String, TreeSet<Integer>> list : rarest) {
+				next = list.ceilingKey(candidate);
+				if (next == null || !next.equals(candidate)) {
+					break;
+				}
+			}
+
+			if (next == null) {
+				break;
+			}
+			else if (next.equals(candidate)) {
+				int matches = distance > 0 ? countNear(postings, candidate, distance) : countPhrase(postings, candidate);
+				if (matches > 0) {
+					scores.add(snapshot.findDocument(candidate), matches);
+				}
+				candidate = rarest.get(0).higherKey(candidate);
 			}
 			else {
-				this.locations.put(path, Math.max(this.locations.get(path), otherIndex.locations.get(path)));
+				candidate = next;
 			}
 		}
+		return rank(scores, snapshot, limit);
 	}
 
 	/**
-	 * Chooses whether to perform an exact or partial search
-	 * @param queries	collection of stemmed words to search through
-	 * @param exact		boolean to decide whether to perform exact or partial search
-	 * @return	list of search result objects
+	 * Counts the positions in the document where the terms appear next to each other in order
+	 *
+	 * @param postings	posting lists of the terms in phrase order, or null for stop words that match any word
+	 * @param location	document containing every term
+	 * @return	number of times the phrase appears in the document
 	 */
-	public List<SearchResult> genericSearch(Collection<String> queries, boolean exact) {
-		if (exact) {
-			return exactSearch(queries);
+	private static int countPhrase(List<TreeMap<String, TreeSet<Integer>>> postings, String location) {
+		int rarest = -1;
+		for (int i = 0; i < postings.size(); i++) {
+			if (postings.get(i) != null && (rarest < 0 || postings.get(i).get(location).size() < postings.get(rarest).get(location).size())) {
+				rarest = i;
+			}
+		}
+
+		int matches = 0;
+		for (int position : postings.get(rarest).get(location)) {
+			int start = position - rarest;
+			boolean found = true;
+			for (int i = 0; i < postings.size() && found; i++) {
+				found = postings.get(i) == null || postings.get(i).get(location).contains(start + i);
+			}
+			if (found) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Counts the positions of the first term in the document that have every other term within the distance
+	 *
+	 * @param postings	posting lists of the terms in query order
+	 * @param location	document containing every term
+	 * @param distance	maximum distance between the first term and the others
+	 * @return	number of times the terms appear near each other in the document
+	 */
+	private static int countNear(List<TreeMap<String, TreeSet<Integer>>> postings, String location, int distance) {
+		int matches = 0;
+		for (int position : postings.get(0).get(location)) {
+			boolean found = true;
+			for (int i = 1; i < postings.size() && found; i++) {
+				Integer near = postings.get(i).get(location).ceiling(position - distance);
+				found = near != null && near <= position + distance;
+			}
+			if (found) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Searches for the documents matching a query of words joined by AND, OR and NOT. Each word
+	 * is matched exactly or, for a partial search, as a prefix. Conjunctions start from the child
+	 * with the fewest documents and gallop through the sorted document numbers of the others, so
+	 * they cost about as much as the postings of the rarest word. Stop words are left out of the
+	 * index, so they neither narrow nor widen what they are joined with and are never expanded as
+	 * prefixes. The matching documents are scored by the words of the query that are not excluded.
+	 * If the deadline passes before the matching documents are found, no results are returned.
+	 *
+	 * @param query	the boolean query to search for
+	 * @param exact	boolean to decide whether to perform exact or partial search
+	 * @return	sorted list of search result objects
+	 */
+	public List<SearchResult> booleanSearch(BooleanQuery query, boolean exact) {
+		return booleanSearch(query, exact, 0);
+	}
+
+	/**
+	 * Searches for the documents matching a query of words joined by AND, OR and NOT and keeps
+	 * only the best results
+	 *
+	 * @param query	the boolean query to search for
+	 * @param exact	boolean to decide whether to perform exact or partial search
+	 * @param limit	maximum number of results to return, or 0 to return every result
+	 * @return	sorted list of at most limit search result objects
+	 *
+	 * @see #booleanSearch(BooleanQuery, boolean)
+	 */
+	public List<SearchResult> booleanSearch(BooleanQuery query, boolean exact, int limit) {
+		TermDictionary terms = getDictionary();
+		int[] matched = neutral(query.getRoot()) ? new int[0] : match(query.getRoot(), terms, exact);
+		if (SearchDeadline.truncated()) {
+			// a NOT of a partly expanded child would match documents it should exclude, so nothing is trusted
+			return new ArrayList<>();
+		}
+		ScoreAccumulator scores = ScoreAccumulator.get(terms.getDocumentCount());
+
+		if (matched.length > 0) {
+			TreeSet<String> included = new TreeSet<>();
+			include(query.getRoot(), true, included);
+			ScoringModel model = scoring;
+			TermDictionary.Impacts impacts = model != null ? terms.getImpacts(model) : null;
+
+			included.removeAll(stopWords);
+			for (String word : included) {
+				int start = exact ? terms.find(word) : terms.start(word);
+				int end = exact ? start + 1 : terms.end(word);
+				for (int id = Math.max(start, 0); id < end && !SearchDeadline.expired(); id++) {
+					int[] docs = terms.getDocs(id);
+					int[] freqs = terms.getFreqs(id);
+					double[] weights = impacts != null ? impacts.get(id) : null;
+					boolean walkDocs = docs.length < matched.length;
+					int[] walked = walkDocs ? docs : matched;
+					int[] other = walkDocs ? matched : docs;
+					int cursor = 0;
+					for (int i = 0; i < walked.length; i++) {
+						cursor = seek(other, cursor, walked[i]);
+						if (cursor == other.length) {
+							break;
+						}
+						if (other[cursor] == walked[i]) {
+							int posting = walkDocs ? i : cursor;
+							if (weights != null) {
+								scores.add(docs[posting], freqs[posting], weights[posting]);
+							}
+							else {
+								scores.add(docs[posting], freqs[posting]);
+							}
+						}
+					}
+				}
+			}
+		}
+		return rank(scores, terms, limit);
+	}
+
+	/**
+	 * Adds the words that are not excluded by NOT to the set. A word excluded twice counts as included.
+	 *
+	 * @param node	node of the boolean query
+	 * @param positive	whether the node is not excluded
+	 * @param included	set to add the included words to
+	 */
+	private static void include(BooleanQuery.Node node, boolean positive, TreeSet<String> included) {
+		if (node instanceof BooleanQuery.Term) {
+			if (positive) {
+				included.add(((BooleanQuery.Term) node).getWord());
+			}
+		}
+		else if (node instanceof BooleanQuery.Not) {
+			include(((BooleanQuery.Not) node).getChild(), !positive, included);
 		}
 		else {
-			return partialSearch(queries);
+			for (BooleanQuery.Node child : ((BooleanQuery.Group) node).getChildren()) {
+				include(child, positive, included);
+			}
 		}
 	}
 
 	/**
-	 * Searches for words in map of stemmed words that matches exactly with the word we're looking for
-	 * and adding it to list of search result objects
+	 * Checks whether a node of a boolean query is made only of stop words, so it is left out of the group it is in
 	 *
-	 * @param queries collection of strings that holds stemmed words to search through
-	 * @return	list of search result objects to get desired output
+	 * @param node	node of the boolean query
+	 * @return	true if every word under the node is a stop word
 	 */
-	public List<SearchResult> exactSearch(Collection<String> queries){
-		Map<String, SearchResult> lookup = new HashMap<>();
-		List<SearchResult> results = new ArrayList<>();
+	private boolean neutral(BooleanQuery.Node node) {
+		if (stopWords.isEmpty()) {
+			return false;
+		}
+		if (node instanceof BooleanQuery.Term) {
+			return stopWords.contains(((BooleanQuery.Term) node).getWord());
+		}
+		if (node instanceof BooleanQuery.Not) {
+			return neutral(((BooleanQuery.Not) node).getChild());
+		}
+		for (BooleanQuery.Node child : ((BooleanQuery.Group) node).getChildren()) {
+			if (!neutral(child)) {
+				return false;
+			}
+		}
+		return true;
+	}
 
-		for (String words : queries) {
-			if(index.containsKey(words)) {
-				searchHelper(lookup, results, words);
+	/**
+	 * Returns the numbers of the documents matching a node of a boolean query that is not
+	 * {@link #neutral(BooleanQuery.Node)}, skipping the children that are
+	 *
+	 * @param node	node of the boolean query
+	 * @param terms	dictionary to look the words up in
+	 * @param exact	whether words match exactly or as prefixes
+	 * @return	sorted document numbers, which must not be modified
+	 */
+	private int[] match(BooleanQuery.Node node, TermDictionary terms, boolean exact) {
+		if (node instanceof BooleanQuery.Term) {
+			String word = ((BooleanQuery.Term) node).getWord();
+			int start = exact ? terms.find(word) : terms.start(word);
+			int end = exact ? start + 1 : terms.end(word);
+			if (start < 0 || start >= end) {
+				return new int[0];
 			}
+			if (end - start == 1) {
+				return terms.getDocs(start);
+			}
+			BitSet union = new BitSet(terms.getDocumentCount());
+			for (int id = start; id < end && !SearchDeadline.expired(); id++) {
+				for (int doc : terms.getDocs(id)) {
+					union.set(doc);
+				}
+			}
+			return union.stream().toArray();
 		}
-		Collections.sort(results);
-		return results;
+
+		if (node instanceof BooleanQuery.Not) {
+			int[] all = new int[terms.getDocumentCount()];
+			Arrays.setAll(all, doc -> doc);
+			return difference(all, match(((BooleanQuery.Not) node).getChild(), terms, exact));
+		}
+
+		List<BooleanQuery.Node> children = ((BooleanQuery.Group) node).getChildren();
+		if (node instanceof BooleanQuery.Or) {
+			int[] union = new int[0];
+			for (BooleanQuery.Node child : children) {
+				if (!neutral(child)) {
+					union = union(union, match(child, terms, exact));
+				}
+			}
+			return union;
+		}
+
+		List<BooleanQuery.Node> required = new ArrayList<>();
+		List<BooleanQuery.Node> excluded = new ArrayList<>();
+		for (BooleanQuery.Node child : children) {
+			if (neutral(child)) {
+				continue;
+			}
+			if (child instanceof BooleanQuery.Not) {
+				excluded.add(((BooleanQuery.Not) child).getChild());
+			}
+			else {
+				required.add(child);
+			}
+		}
+		required.sort((one, two) -> Long.compare(estimate(one, terms, exact), estimate(two, terms, exact)));
+
+		int[] result;
+		if (required.isEmpty()) {
+			result = new int[terms.getDocumentCount()];
+			Arrays.setAll(result, doc -> doc);
+		}
+		else {
+			result = match(required.get(0), terms, exact);
+			for (int i = 1; i < required.size() && result.length > 0; i++) {
+				result = intersect(result, match(required.get(i), terms, exact));
+			}
+		}
+		for (int i = 0; i < excluded.size() && result.length > 0; i++) {
+			result = difference(result, match(excluded.get(i), terms, exact));
+		}
+		return result;
 	}
 
 	/**
-	 * Searches for words in map of stemmed words that starts with the word we're looking for
-	 * and adding it to list of search result objects
+	 * Returns the most documents a node of a boolean query can match, used to intersect the rarest children first
 	 *
-	 * @param queries collection of strings that holds stemmed words to search through
-	 * @return	list of search result objects to get desired output
+	 * @param node	node of the boolean query
+	 * @param terms	dictionary to look the words up in
+	 * @param exact	whether words match exactly or as prefixes
+	 * @return	upper bound on the number of matching documents
 	 */
-	public List<SearchResult> partialSearch(Collection<String> queries){
-		Map<String, SearchResult> lookup = new HashMap<>();
-		List<SearchResult> results = new ArrayList<>();
+	private static long estimate(BooleanQuery.Node node, TermDictionary terms, boolean exact) {
+		if (node instanceof BooleanQuery.Term) {
+			String word = ((BooleanQuery.Term) node).getWord();
+			int start = exact ? terms.find(word) : terms.start(word);
+			int end = exact ? start + 1 : terms.end(word);
+			return start < 0 ? 0 : Math.min(terms.getDocumentCount(), terms.getDocuments(start, end));
+		}
+		if (node instanceof BooleanQuery.Not) {
+			return terms.getDocumentCount();
+		}
+		boolean and = node instanceof BooleanQuery.And;
+		long estimate = and ? terms.getDocumentCount() : 0;
+		for (BooleanQuery.Node child : ((BooleanQuery.Group) node).getChildren()) {
+			long size = estimate(child, terms, exact);
+			estimate = and ? Math.min(estimate, size) : Math.min(terms.getDocumentCount(), estimate + size);
+		}
+		return estimate;
+	}
 
-		for (String words : queries) {
-			for(String key : index.tailMap(words).keySet()) {
-				if(key.startsWith(words)) {
-					searchHelper(lookup, results, key);
+	/**
+	 * Returns the document numbers in both sorted arrays, walking the shorter one and galloping through the longer one
+	 *
+	 * @param one	sorted document numbers
+	 * @param two	sorted document numbers
+	 * @return	sorted document numbers in both
+	 */
+	static int[] intersect(int[] one, int[] two) {
+		int[] small = one.length <= two.length ? one : two;
+		int[] large = one.length <= two.length ? two : one;
+		int[] result = new int[small.length];
+		int size = 0;
+		int cursor = 0;
+		for (int doc : small) {
+			cursor = seek(large, cursor, doc);
+			if (cursor == large.length) {
+				break;
+			}
+			if (large[cursor] == doc) {
+				result[size++] = doc;
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Returns the document numbers in the first sorted array that are not in the second, galloping through the second
+	 *
+	 * @param one	sorted document numbers to keep
+	 * @param two	sorted document numbers to remove
+	 * @return	sorted document numbers only in the first
+	 */
+	static int[] difference(int[] one, int[] two) {
+		int[] result = new int[one.length];
+		int size = 0;
+		int cursor = 0;
+		for (int doc : one) {
+			cursor = seek(two, cursor, doc);
+			if (cursor == two.length || two[cursor] != doc) {
+				result[size++] = doc;
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Returns the document numbers in either sorted array
+	 *
+	 * @param one	sorted document numbers
+	 * @param two	sorted document numbers
+	 * @return	sorted document numbers in either
+	 */
+	static int[] union(int[] one, int[] two) {
+		if (one.length == 0) {
+			return two;
+		}
+		if (two.length == 0) {
+			return one;
+		}
+		int[] result = new int[one.length + two.length];
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while (i < one.length && j < two.length) {
+			if (one[i] < two[j]) {
+				result[size++] = one[i++];
+			}
+			else if (two[j] < one[i]) {
+				result[size++] = two[j++];
+			}
+			else {
+				result[size++] = one[i++];
+				j++;
+			}
+		}
+		while (i < one.length) {
+			result[size++] = one[i++];
+		}
+		while (j < two.length) {
+			result[size++] = two[j++];
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Returns the sorted snapshot of the words and documents, building it again if the index changed since the last one.
+	 * Only one of the searches that find it missing builds it, and the others wait for that one.
+	 *
+	 * @return dictionary of the words in the index
+	 */
+	private TermDictionary getDictionary() {
+		TermDictionary terms = dictionary;
+		if (terms == null) {
+			synchronized (this) {
+				terms = dictionary;
+				if (terms == null) {
+					terms = new TermDictionary(index, locations);
+					dictionary = terms;
 				}
-				else {
-					break;
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Turns the match counts into sorted search results and clears the accumulator. When a limit is
+	 * given, only the best results are kept in a bounded heap whose head is the worst result kept so
+	 * far, and a search result is only created for a document that beats it.
+	 *
+	 * @param scores	match counts of the documents hit by the search
+	 * @param terms		dictionary the document numbers belong to
+	 * @param limit		maximum number of results to return, or 0 to return every result
+	 * @return	sorted list of search result objects
+	 */
+	private List<SearchResult> rank(ScoreAccumulator scores, TermDictionary terms, int limit) {
+		List<SearchResult> results;
+
+		try {
+			if (limit <= 0 || scores.size() <= limit) {
+				results = new ArrayList<>(scores.size());
+				for (int i = 0; i < scores.size(); i++) {
+					int doc = scores.getDocument(i);
+					results.add(new SearchResult(terms.getPath(doc), scores.getCount(doc), score(scores, terms, doc)));
+				}
+			}
+			else {
+				PriorityQueue<SearchResult> heap = new PriorityQueue<>(limit + 1, Collections.reverseOrder());
+				for (int i = 0; i < scores.size(); i++) {
+					int doc = scores.getDocument(i);
+					int count = scores.getCount(doc);
+					double score = score(scores, terms, doc);
+					if (heap.size() < limit || compare(score, count, terms.getPath(doc), heap.peek()) < 0) {
+						heap.add(new SearchResult(terms.getPath(doc), count, score));
+						if (heap.size() > limit) {
+							heap.poll();
+						}
+					}
 				}
+				results = new ArrayList<>(heap);
 			}
 		}
+		finally {
+			scores.clear();
+		}
 		Collections.sort(results);
 		return results;
 	}
 
 	/**
-	 * Search helper method to avoid repetitive code. Finds the path of the word we're looking for, if it's there update count.
-	 * If not, create new search result object for it
+	 * Returns the score of a document hit by a search
 	 *
-	 * @param lookup	map of stemmed words
-	 * @param results	list of search result object
-	 * @param key		word that we're looking for
+	 * @param scores	match counts and weights of the documents hit by the search
+	 * @param terms		dictionary the document numbers belong to
+	 * @param doc		number of the document
+	 * @return	summed weights if a scoring model was used, otherwise matches divided by word count
 	 */
-	private void searchHelper(Map<String, SearchResult> lookup, List<SearchResult> results, String key) {
-		for (String location : index.get(key).keySet()) {
-			if (!lookup.containsKey((location))){
-				SearchResult result = new SearchResult(location);
-				lookup.put(location, result);
-				results.add(result);
-			}
-			lookup.get(location).updateCount(key);
-		}
+	private static double score(ScoreAccumulator scores, TermDictionary terms, int doc) {
+		return scores.isWeighted() ? scores.getWeight(doc) : scores.getCount(doc) * 1.0 / terms.getLength(doc);
 	}
 
 	/**
@@ -243,6 +1551,33 @@ public class InvertedIndex {
 		return this.index.get(word).get(location).contains(indexCount);
 	}
 
+	/**
+	 * Returns the number of positions stored in the index. The word counts in
+	 * locations are not included since they are kept in memory when spilling.
+	 *
+	 * @return number of positions stored in the index
+	 */
+	public long numPositions() {
+		return positions;
+	}
+
+	/**
+	 * Writes the words, paths, and positions of the index to a sorted run file
+	 * and then removes them from memory. The word counts are kept so counts and
+	 * scores stay correct after the runs are merged back together.
+	 *
+	 * @param path the location of the run file
+	 * @throws IOException if unable to write the file
+	 *
+	 * @see IndexSpiller
+	 */
+	public void spill(Path path) throws IOException {
+		IndexSpiller.writeRun(this.index, path);
+		this.index.clear();
+		this.positions = 0;
+		this.dictionary = null;
+	}
+
 	/**
 	 * Writes to the JSON writer the inverted index
 	 *
@@ -258,6 +1593,28 @@ public class InvertedIndex {
 		return this.index.toString();
 	}
 
+	/**
+	 * Compares a result that has not been created yet to an existing one, in the same order as
+	 * {@link SearchResult#compareTo(SearchResult)}
+	 *
+	 * @param score	score of the first result
+	 * @param count	count of the first result
+	 * @param path	path of the first result
+	 * @param other	the result to compare to
+	 * @return	negative if the first result ranks higher, positive if it ranks lower
+	 */
+	private static int compare(double score, int count, String path, SearchResult other) {
+		if((score == other.score) && (count == other.count)) {
+			return (path.compareToIgnoreCase(other.path));
+		}
+		else if(score == other.score) {
+			return (Integer.compare(other.count, count));
+		}
+		else {
+			return (Double.compare(score, other.score) * -1);
+		}
+	}
+
 	/**
 	 * Creates SearchResult object to put into query to store score, count, and location
 	 * @author EricChen
@@ -283,17 +1640,21 @@ public class InvertedIndex {
 			this.count = 0;
 		}
 
+		/**
+		 * Search Result constructor for a file whose matches have already been counted and scored
+		 * @param path location to file
+		 * @param count number of matches found in the file
+		 * @param score score of the file
+		 */
+		public SearchResult(String path, int count, double score) {
+			this.path = path;
+			this.count = count;
+			this.score = score;
+		}
+
 		@Override
 		public int compareTo(SearchResult other) {	//if score of one object is less than other, organize it
-			if((this.score == other.score) && (this.count == other.count)) {
-				return (this.path.compareToIgnoreCase(other.path));
-			}
-			else if(this.score == other.score) {
-				return (Integer.compare(other.count,  this.count));
-			}
-			else {
-				return (Double.compare(this.score, other.score) * -1);
-			}
+			return compare(this.score, this.count, this.path, other);
 		}
 
 		/**
@@ -319,14 +1680,5 @@ public class InvertedIndex {
 		public double getScore() {
 			return this.score;
 		}
-
-		/**
-		 * Updates the count
-		 * @param key word that we're looking for
-		 */
-		private void updateCount(String key) {
-			count = count + index.get(key).get(path).size();
-			score = this.count * 1.0 / locations.get(this.path);
-		}
 	}
 }
\ No newline at end of file
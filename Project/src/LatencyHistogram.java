@@ -0,0 +1,107 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of durations. Durations are counted in buckets that
+ * double in size, starting at one microsecond, so percentiles are estimates
+ * that are at most twice the actual value.
+ *
+ * @author EricChen
+ */
+public class LatencyHistogram {
+
+	/** Number of buckets, enough to hold durations of several days */
+	private static final int BUCKETS = 40;
+
+	/** Number of durations recorded in each bucket */
+	private final AtomicLongArray buckets;
+
+	/** Number of durations recorded */
+	private final AtomicLong count;
+
+	/** Sum of the durations recorded in nanoseconds */
+	private final AtomicLong total;
+
+	/** Longest duration recorded in nanoseconds */
+	private final AtomicLong max;
+
+	/** Creates an empty histogram */
+	public LatencyHistogram() {
+		this.buckets = new AtomicLongArray(BUCKETS);
+		this.count = new AtomicLong();
+		this.total = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+
+	/**
+	 * Records a single duration
+	 *
+	 * @param nanos duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(1, nanos / 1000);
+		int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		max.accumulateAndGet(nanos, Math::max);
+	}
+
+	/**
+	 * Returns the number of durations recorded
+	 *
+	 * @return number of durations recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the mean duration in milliseconds
+	 *
+	 * @return mean duration in milliseconds, or 0 if nothing was recorded
+	 */
+	public double getMean() {
+		long recorded = count.get();
+		return recorded == 0 ? 0 : total.get() / 1e6 / recorded;
+	}
+
+	/**
+	 * Returns the longest duration in milliseconds
+	 *
+	 * @return longest duration in milliseconds
+	 */
+	public double getMax() {
+		return max.get() / 1e6;
+	}
+
+	/**
+	 * Returns an estimate of the duration below which the given fraction of
+	 * durations fall, using the upper bound of the bucket it lands in
+	 *
+	 * @param fraction the fraction of durations, such as 0.99
+	 * @return estimated duration in milliseconds, or 0 if nothing was recorded
+	 */
+	public double getPercentile(double fraction) {
+		long recorded = count.get();
+		if (recorded == 0) {
+			return 0;
+		}
+
+		long target = (long) Math.ceil(fraction * recorded);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= target) {
+				return Math.min((2L << i) / 1e3, getMax());
+			}
+		}
+		return getMax();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms",
+				getCount(), getMean(), getPercentile(0.5), getPercentile(0.99), getMax());
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Automaton accepting every word within a number of insertions, deletions, and
+ * substitutions of a query word. A state is the row of edit distances between
+ * the characters read so far and each prefix of the query word, so reading a
+ * character costs time in the length of the query word. A state that can no
+ * longer reach an accepting state tells the caller that no word starting with
+ * the characters read so far can match, so the whole group of words sharing
+ * that prefix can be skipped.
+ *
+ * @author EricChen
+ */
+public class LevenshteinAutomaton {
+
+	/** Largest number of edits allowed, since the number of words matched grows quickly beyond it */
+	public static final int MAX_DISTANCE = 2;
+
+	/** Query word the automaton matches */
+	private final String word;
+
+	/** Number of edits allowed */
+	private final int distance;
+
+	/**
+	 * Constructor for the automaton
+	 *
+	 * @param word	query word to match
+	 * @param distance	number of edits allowed, at most {@link #MAX_DISTANCE}
+	 */
+	public LevenshteinAutomaton(String word, int distance) {
+		this.word = word;
+		this.distance = Math.max(0, Math.min(distance, MAX_DISTANCE));
+	}
+
+	/**
+	 * Returns the state before reading any characters
+	 *
+	 * @return starting state
+	 */
+	public int[] start() {
+		int[] state = new int[word.length() + 1];
+		for (int j = 0; j < state.length; j++) {
+			state[j] = j;
+		}
+		return state;
+	}
+
+	/**
+	 * Returns the state after reading one more character
+	 *
+	 * @param state	the current state, which is not changed
+	 * @param c	the character to read
+	 * @return the next state
+	 */
+	public int[] step(int[] state, char c) {
+		int[] next = new int[state.length];
+		step(state, c, next);
+		return next;
+	}
+
+	/**
+	 * Writes the state after reading one more character into an existing array, so walking
+	 * many words does not allocate a state for every character
+	 *
+	 * @param state	the current state, which is not changed
+	 * @param c	the character to read
+	 * @param next	array to write the next state into, as long as the current state
+	 * @return the fewest edits in the next state, which is more than the distance if no match can follow
+	 */
+	public int step(int[] state, char c, int[] next) {
+		next[0] = state[0] + 1;
+		int fewest = next[0];
+		for (int j = 1; j < state.length; j++) {
+			int replace = state[j - 1] + (word.charAt(j - 1) == c ? 0 : 1);
+			next[j] = Math.min(replace, Math.min(state[j], next[j - 1]) + 1);
+			fewest = Math.min(fewest, next[j]);
+		}
+		return fewest;
+	}
+
+	/**
+	 * Checks to see if the characters read so far are within the distance of the query word
+	 *
+	 * @param state	the current state
+	 * @return true if the characters read so far match
+	 */
+	public boolean isMatch(int[] state) {
+		return state[state.length - 1] <= distance;
+	}
+
+	/**
+	 * Checks to see if reading more characters could still lead to a match
+	 *
+	 * @param state	the current state
+	 * @return false if no word starting with the characters read so far can match
+	 */
+	public boolean canMatch(int[] state) {
+		for (int edits : state) {
+			if (edits <= distance) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of edits allowed
+	 *
+	 * @return number of edits allowed
+	 */
+	public int getDistance() {
+		return distance;
+	}
+}
@@ -8,21 +8,39 @@ import java.nio.file.Path;
  */
 public class MultiIndexBuilder extends IndexBuilder {
 
-	/** Creates a work queue that we can reuse between building and searching */
-	private final WorkQueue workQueue;
+	/** Group of indexing tasks on the work queue shared between building and searching */
+	private final WorkQueue.TaskGroup group;
 
 	/** Thread safe Inverted Index	 */
 	private final ThreadSafeInvertedIndex index;
 
+	/** Spills the index to disk when it grows past the memory budget, or null if there is no budget */
+	private final IndexSpiller spiller;
+
+	/** Metrics of the shared work queue, which count the files that could not be added */
+	private final WorkQueueMetrics metrics;
+
 	/**
 	 * Constructor for the multithread safe inverted index
 	 * @param index	thread-safe inverted index
 	 * @param workQueue work queue to start multithreading
 	 */
 	public MultiIndexBuilder(ThreadSafeInvertedIndex index, WorkQueue workQueue) {
-		super(index);
+		this(index, workQueue, null);
+	}
+
+	/**
+	 * Constructor for the multithread safe inverted index that is kept under a memory budget
+	 * @param index	thread-safe inverted index
+	 * @param workQueue work queue to start multithreading
+	 * @param spiller	spiller holding the memory budget, or null if there is no budget
+	 */
+	public MultiIndexBuilder(ThreadSafeInvertedIndex index, WorkQueue workQueue, IndexSpiller spiller) {
+		super(index, spiller);
 		this.index = index;
-		this.workQueue = workQueue;
+		this.group = workQueue.newGroup();
+		this.spiller = spiller;
+		this.metrics = workQueue.getMetrics();
 	}
 
 	/** Recursively traverses through directories to access individual text files. If it's a text file, stems the file and updates indexCount.
@@ -33,17 +51,12 @@ public class MultiIndexBuilder extends IndexBuilder {
 	@Override
 	public void build(Path path) throws IOException {
 		super.build(path);
-		try {
-			workQueue.finish();
-		}
-		catch(Exception e) {
-			System.err.printf("Error: ", e.toString());
-		}
+		group.finish();
 	}
 
 	@Override
 	public void addFile(Path inputFile) throws IOException {
-		workQueue.execute(new Task(inputFile));
+		group.execute(new Task(inputFile));
 	}
 
 	/**
@@ -69,8 +82,12 @@ public class MultiIndexBuilder extends IndexBuilder {
 				InvertedIndex local = new InvertedIndex();
 				addFile(file, local);
 				index.addAll(local);
+				if (spiller != null) {
+					spiller.check(index);
+				}
 			}
 			catch (IOException e) {
+				metrics.failed();
 				System.err.printf("File: %s has an error", file.toString());
 			}
 		}
@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the inverted index with several worker processes, so building is not
+ * limited to the heap and cores of one JVM. The files found in a directory are
+ * split between the workers by a hash of their path, each worker writes its part
+ * of the index to a segment in the sorted run format of {@link IndexSpiller} and
+ * prints the path of the segment, and the segments are then merged into the index.
+ * @author EricChen
+ */
+public class MultiProcessIndexBuilder extends IndexBuilder {
+
+	/** Start of the line a worker prints once its segment is written, followed by the path of the segment */
+	public static final String READY = "Wrote segment ";
+
+	/** Inverted index the segments are merged into */
+	private final InvertedIndex index;
+
+	/** Number of worker processes */
+	private final int workers;
+
+	/** Extra driver arguments passed to every worker */
+	private final List<String> arguments;
+
+	/**
+	 * Constructor for the multi-process index builder
+	 * @param index	inverted index the segments are merged into
+	 * @param workers	number of worker processes
+	 * @param arguments	extra driver arguments passed to every worker, such as -threads
+	 */
+	public MultiProcessIndexBuilder(InvertedIndex index, int workers, List<String> arguments) {
+		super(index);
+		this.index = index;
+		this.workers = Math.max(1, workers);
+		this.arguments = new ArrayList<>(arguments);
+	}
+
+	/** Starts a worker for each part of the directory, waits for every segment, and merges them
+	 *  into the index. A single file is added directly since it cannot be split.
+	 * @param 	path	path to the directory or file
+	 * @throws 	IOException if a worker fails or the segments cannot be merged
+	 */
+	@Override
+	public void build(Path path) throws IOException {
+		if(!Files.isDirectory(path)) {
+			super.build(path);
+			return;
+		}
+
+		Path directory = Files.createTempDirectory("index-segments");
+		List<ShardProcess> processes = new ArrayList<>();
+		List<Path> segments = new ArrayList<>();
+		try {
+			for(int i = 0; i < workers; i++) {
+				List<String> worker = new ArrayList<>(List.of("-path", path.toString(), "-shard", i + "/" + workers,
+						"-segment", directory.resolve("segment-" + i + ".txt").toString()));
+				worker.addAll(arguments);
+				processes.add(new ShardProcess(i, worker));
+			}
+			for(ShardProcess process : processes) {
+				segments.add(Path.of(process.await(READY)));
+			}
+			for(ShardProcess process : processes) {
+				process.join();
+			}
+			IndexSpiller.load(segments, index);
+		}
+		catch (IOException e) {
+			throw new IOException("Unable to build with " + workers + " workers", e);
+		}
+		finally {
+			for(ShardProcess process : processes) {
+				process.stop();
+			}
+			for(int i = 0; i < workers; i++) {
+				Files.deleteIfExists(directory.resolve("segment-" + i + ".txt"));
+			}
+			Files.deleteIfExists(directory);
+		}
+	}
+}
@@ -1,39 +1,77 @@
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
-
 /**
  * Class to create multi-thread safe query
  * @author EricChen
  */
 public class MultiQueryBuilder implements QueryBuilderInterface{
 
-	/** Inverted index containing word, file path, and index count */
-	private InvertedIndex index;
+	/** Parser that works out the search each line asks for and runs it on the index and cache */
+	private final QueryParser parser;
+
+	/** Number of queries searched together, or 0 to search each query in its own task */
+	private final int batch;
+
+	/** Joined stemmed words mapped to the stemmed words of the queries waiting for the next batch, guarded by results */
+	private LinkedHashMap<String, TreeSet<String>> pending;
 
-	/** Work queue to keep track of pending work */
-	private WorkQueue workQueue;
+	/** Group of query tasks on the shared work queue to keep track of pending work */
+	private final WorkQueue.TaskGroup group;
 
 	/** Map of word mapped to search result objects */
 	private final TreeMap<String, List<InvertedIndex.SearchResult>> results;
 
-	/** The default stemmer algorithm used by this class. */
-	public static final SnowballStemmer.ALGORITHM DEFAULT = SnowballStemmer.ALGORITHM.ENGLISH;
+	/** Spiller that moves results out of memory as queries complete, or null to keep every result in memory, guarded by results */
+	private final ResultSpiller spiller;
+
+	/** Milliseconds each query line may search for, or 0 to search without a deadline */
+	private final long deadline;
+
+	/** Keys of the queries whose search ran out of time and holds only the results found so far, guarded by results */
+	private final TreeSet<String> truncated;
+
+	/** Metrics of the shared work queue, which count the queries that ran out of time */
+	private final WorkQueueMetrics metrics;
 
 	/**
 	 * Constructor for the multi-thread safe query
 	 * @param index	inverted index
 	 * @param exact	boolean to determine exact or partial search
-	 * @param threads	amount of threads to use
+	 * @param workQueue	work queue shared with the other phases
+	 */
+	public MultiQueryBuilder(InvertedIndex index, boolean exact, WorkQueue workQueue) {
+		this(index, exact, workQueue, new SearchOptions());
+	}
+
+	/**
+	 * Constructor for the multi-thread safe query with the options of the searches: the cache, the number of
+	 * results to keep, the batch size, the result spiller, and the deadline. Timeouts are counted in the
+	 * metrics of the work queue.
+	 * @param index	inverted index
+	 * @param exact	boolean to determine exact or partial search
+	 * @param workQueue	work queue shared with the other phases
+	 * @param options	options of the searches
 	 */
-	public MultiQueryBuilder(InvertedIndex index, boolean exact, int threads) {
-		this.workQueue = new WorkQueue(threads);
+	public MultiQueryBuilder(InvertedIndex index, boolean exact, WorkQueue workQueue, SearchOptions options) {
+		this.group = workQueue.newGroup(WorkQueue.Priority.INTERACTIVE);
 		results = new TreeMap<>();
-		this.index = index;
+		pending = new LinkedHashMap<>();
+		truncated = new TreeSet<>();
+		this.parser = new QueryParser(index, options.getCache(), options.getLimit());
+		this.batch = options.getBatch();
+		this.spiller = options.getSpiller();
+		this.deadline = options.getDeadline();
+		this.metrics = workQueue.getMetrics();
 	}
 
 	/** Recursively traverses through directories to access individual text files. If it's a text file, stems the file and updates indexCount.
@@ -44,24 +82,108 @@ public class MultiQueryBuilder implements QueryBuilderInterface{
 	 */
 	@Override
 	public void queryStem(Path inputFile, boolean exact) throws IOException {
-		QueryBuilderInterface.super.queryStem(inputFile, exact);
 		try {
-			workQueue.finish();
+			QueryBuilderInterface.super.queryStem(inputFile, exact);
+			group.finish();
 		}
-		catch(Exception e) {
-			System.err.printf("Error: ", e.toString());
+		finally {
+			LinkedHashMap<String, TreeSet<String>> rest;
+			synchronized (results) {
+				rest = pending;
+				pending = new LinkedHashMap<>();
+			}
+			search(rest, exact);
 		}
 	}
 
 	@Override
 	public void queryStem(String line, boolean exact) {
-		workQueue.execute(new Task(line, exact));
+		group.execute(new Task(line, exact));
+	}
+
+	@Override
+	public void clear() {
+		synchronized (results) {
+			results.clear();
+			pending.clear();
+			truncated.clear();
+			if (spiller != null) {
+				try {
+					spiller.clear();
+				}
+				catch (IOException e) {
+					System.err.printf("Unable to delete the spilled query results due to error: %s", e.toString());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks to see if the query already has results, in memory or written by the spiller. Must hold the lock on results.
+	 * @param key	the key of the query
+	 * @return true if the query already has results
+	 */
+	private boolean contains(String key) {
+		return results.containsKey(key) || (spiller != null && spiller.contains(key));
+	}
+
+	/**
+	 * Adds the results of a query, letting the spiller move them out of memory if needed. Must hold the lock on results.
+	 * @param key	the key of the query
+	 * @param found	the results of the query
+	 * @param cut	whether the search of the query ran out of time
+	 */
+	private void put(String key, List<InvertedIndex.SearchResult> found, boolean cut) {
+		results.put(key, found);
+		if (cut && truncated.add(key)) {
+			metrics.timedOut();
+		}
+		if (spiller != null) {
+			try {
+				spiller.check(results, found.size());
+			}
+			catch (IOException e) {
+				System.err.printf("Unable to spill the query results due to error: %s", e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Searches for a batch of queries all at once, each under a deadline of its own, and adds their results
+	 * @param queries	joined stemmed words mapped to the stemmed words of each query
+	 * @param exact	boolean to determine exact or partial search
+	 */
+	private void search(LinkedHashMap<String, TreeSet<String>> queries, boolean exact) {
+		if (queries.isEmpty()) {
+			return;
+		}
+		List<TreeSet<String>> words = new ArrayList<>(queries.values());
+		BitSet cut = new BitSet();
+		List<List<InvertedIndex.SearchResult>> local = parser.search(words, exact, deadline, cut);
+		synchronized (results) {
+			Iterator<String> keys = queries.keySet().iterator();
+			for (int i = 0; i < local.size(); i++) {
+				put(keys.next(), local.get(i), cut.get(i));
+			}
+		}
+	}
+
+	@Override
+	public Set<String> getTruncated() {
+		synchronized (results) {
+			return Collections.unmodifiableSet(new TreeSet<>(truncated));
+		}
 	}
 
 	@Override
 	public void queryJson(Path path) throws IOException {
 		synchronized (results) {
-			SimpleJsonWriter.asQueryObject(results, path);
+			if (spiller != null) {
+				spiller.writeResults(results, path);
+			}
+			else {
+				SimpleJsonWriter.asQueryObject(results, path);
+			}
 		}
 	}
 
@@ -87,36 +209,54 @@ public class MultiQueryBuilder implements QueryBuilderInterface{
 			this.exact = exact;
 		}
 
+		/**
+		 * Searches the line under the deadline if there is one, reporting any failure
+		 */
 		@Override
 		public void run() {
 			try {
-				TreeSet<String> stemmedWords = new TreeSet<String>();
-				SnowballStemmer stemmer = new SnowballStemmer(DEFAULT);
-				String[] parsed = TextParser.parse(line);
-
-				if (parsed.length < 1) {
-					return;
-				}
+				SearchDeadline.run(deadline, this::searchLine);
+			}
+			catch (Exception e) {
+				metrics.failed();
+				System.err.printf("Unable to search %s due to error: %s%n", line, e.toString());
+			}
+		}
 
-				for (String words : parsed) { // getting the words in the parsed line
-					stemmedWords.add(stemmer.stem(words).toString()); // adds stemmed word into tree set
-				}
+		/**
+		 * Stems the line and adds the results of its search, unless the query already has results.
+		 * Each query of a batch gets a deadline of its own when the batch is searched.
+		 */
+		private void searchLine() {
+			QueryParser.Query query = parser.parse(line);
 
-				String joined = String.join(" ", stemmedWords);
+			if (query == null) {
+				return;
+			}
 
-				synchronized (results) {
-					if (results.containsKey(joined)) {
+			LinkedHashMap<String, TreeSet<String>> full = null;
+			synchronized (results) {
+				if (contains(query.getKey())) {
+					return;
+				}
+				if (batch > 0 && query.getWords() != null) {
+					pending.putIfAbsent(query.getKey(), query.getWords());
+					if (pending.size() < batch) {
 						return;
 					}
+					full = pending;
+					pending = new LinkedHashMap<>();
 				}
+			}
 
-				List<InvertedIndex.SearchResult> local = index.genericSearch(stemmedWords, exact);
-				synchronized (results) {
-					results.put(joined, local);
-				}
+			if (full != null) {
+				search(full, exact);
+				return;
 			}
-			catch (Exception e) {
-				System.err.printf("Error: ", e.toString());
+
+			List<InvertedIndex.SearchResult> local = query.search(exact);
+			synchronized (results) {
+				put(query.getKey(), local, SearchDeadline.truncated());
 			}
 		}
 	}
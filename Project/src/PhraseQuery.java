@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * Query line of the form {@code "quoted terms"} for a phrase search, or
+ * {@code "quoted terms"~N} for a proximity search where every term must be
+ * within N words of the first term.
+ *
+ * @author EricChen
+ */
+public class PhraseQuery {
+
+	/** Regular expression that matches a quoted query line with an optional distance. **/
+	public static final Pattern PHRASE_REGEX = Pattern.compile("^\\s*\"([^\"]*)\"\\s*(?:~\\s*(\\d+))?\\s*$");
+
+	/** Stemmed terms of the phrase in order, including repeated terms */
+	private final List<String> terms;
+
+	/** Maximum distance between the first term and the others, or 0 for an exact phrase */
+	private final int distance;
+
+	/**
+	 * Constructor for the phrase query
+	 *
+	 * @param terms	stemmed terms of the phrase in order
+	 * @param distance	maximum distance between the first term and the others, or 0 for an exact phrase
+	 */
+	public PhraseQuery(List<String> terms, int distance) {
+		this.terms = Collections.unmodifiableList(terms);
+		this.distance = distance;
+	}
+
+	/**
+	 * Parses and stems the line if it is a phrase or proximity query
+	 *
+	 * @param line	query line
+	 * @param stemmer	the stemmer to use
+	 * @return the phrase query, or null if the line is not a phrase or has no words
+	 */
+	public static PhraseQuery parse(String line, Stemmer stemmer) {
+		Matcher matcher = PHRASE_REGEX.matcher(line);
+		if (!matcher.matches()) {
+			return null;
+		}
+
+		List<String> terms = new ArrayList<>();
+		for (String word : TextParser.parse(matcher.group(1))) {
+			terms.add(stemmer.stem(word).toString());
+		}
+		if (terms.isEmpty()) {
+			return null;
+		}
+
+		int distance = 0;
+		if (matcher.group(2) != null) {
+			try {
+				distance = Integer.parseInt(matcher.group(2));
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return new PhraseQuery(terms, distance);
+	}
+
+	/**
+	 * Returns the stemmed terms of the phrase in order
+	 *
+	 * @return unmodifiable list of stemmed terms
+	 */
+	public List<String> getTerms() {
+		return terms;
+	}
+
+	/**
+	 * Returns the maximum distance between the first term and the others
+	 *
+	 * @return maximum distance, or 0 for an exact phrase
+	 */
+	public int getDistance() {
+		return distance;
+	}
+
+	/**
+	 * Returns the key used for this query in the results, the stemmed terms in quotes
+	 */
+	@Override
+	public String toString() {
+		String key = "\"" + String.join(" ", terms) + "\"";
+		return distance > 0 ? key + "~" + distance : key;
+	}
+}
@@ -0,0 +1,151 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * Compares the throughput of searching each query on its own against
+ * {@link InvertedIndex#batchSearch(List, boolean, int)} on a real query file,
+ * for both exact and partial search. The distinct stemmed queries of the file
+ * are replayed, the same way the query builders skip repeated queries.
+ *
+ * Usage: {@code java QueryBenchmark path queries [batch...]}
+ *
+ * @author EricChen
+ */
+public class QueryBenchmark {
+
+	/** Default batch sizes to measure */
+	private static final int[] DEFAULT_BATCHES = { 16, 64, 256 };
+
+	/** Number of untimed rounds before measuring */
+	private static final int WARMUP = 3;
+
+	/** Number of timed rounds that are averaged */
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Builds the index, then prints queries per second searching one at a time and in batches
+	 *
+	 * @param args the text files to index, the query file, and optional batch sizes to measure
+	 * @throws IOException if unable to read the text files or the query file
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: java QueryBenchmark path queries [batch...]");
+			return;
+		}
+
+		InvertedIndex index = new InvertedIndex();
+		new IndexBuilder(index).build(Path.of(args[0]));
+		List<TreeSet<String>> queries = read(Path.of(args[1]));
+
+		int[] batches = DEFAULT_BATCHES;
+		if (args.length > 2) {
+			batches = new int[args.length - 2];
+			for (int i = 2; i < args.length; i++) {
+				batches[i - 2] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.printf("%d queries, %d words, %d documents%n", queries.size(), index.getWord().size(), index.getCounts().size());
+		System.out.printf("%8s %6s %14s %14s %8s%n", "search", "batch", "one at a time", "batched", "speedup");
+		for (boolean exact : new boolean[] { true, false }) {
+			double before = measure(index, queries, exact, 0);
+			for (int batch : batches) {
+				double after = measure(index, queries, exact, batch);
+				System.out.printf("%8s %6d %14.0f %14.0f %7.2fx%n", exact ? "exact" : "partial", batch, before, after, after / before);
+			}
+		}
+	}
+
+	/**
+	 * Reads and stems the distinct queries of a query file
+	 *
+	 * @param path the query file
+	 * @return stemmed words of each distinct query, in the order they first appear
+	 * @throws IOException if unable to read the file
+	 */
+	private static List<TreeSet<String>> read(Path path) throws IOException {
+		LinkedHashMap<String, TreeSet<String>> queries = new LinkedHashMap<>();
+		SnowballStemmer stemmer = new SnowballStemmer(QueryBuilder.DEFAULT);
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				TreeSet<String> words = new TreeSet<>();
+				for (String word : TextParser.parse(line)) {
+					words.add(stemmer.stem(word).toString());
+				}
+				if (!words.isEmpty()) {
+					queries.putIfAbsent(String.join(" ", words), words);
+				}
+			}
+		}
+		return new ArrayList<>(queries.values());
+	}
+
+	/**
+	 * Searches for every query and returns the average queries per second, checking
+	 * that batches return the same results as searching one at a time
+	 *
+	 * @param index the inverted index to search
+	 * @param queries stemmed words of each query
+	 * @param exact whether to perform an exact or partial search
+	 * @param batch number of queries searched together, or 0 to search one at a time
+	 * @return average queries per second over the timed rounds
+	 */
+	private static double measure(InvertedIndex index, List<TreeSet<String>> queries, boolean exact, int batch) {
+		double total = 0;
+		for (int round = 0; round < WARMUP + ROUNDS; round++) {
+			List<List<InvertedIndex.SearchResult>> results = new ArrayList<>(queries.size());
+			long start = System.nanoTime();
+			if (batch <= 0) {
+				for (TreeSet<String> words : queries) {
+					results.add(index.genericSearch(words, exact));
+				}
+			}
+			else {
+				for (int i = 0; i < queries.size(); i += batch) {
+					results.addAll(index.batchSearch(queries.subList(i, Math.min(queries.size(), i + batch)), exact, 0));
+				}
+			}
+			long elapsed = System.nanoTime() - start;
+			if (round >= WARMUP) {
+				total += queries.size() * 1e9 / elapsed;
+			}
+			if (round == 0 && batch > 0) {
+				check(index, queries, exact, results);
+			}
+		}
+		return total / ROUNDS;
+	}
+
+	/**
+	 * Prints a warning if the batched results differ from searching one at a time
+	 *
+	 * @param index the inverted index to search
+	 * @param queries stemmed words of each query
+	 * @param exact whether to perform an exact or partial search
+	 * @param results batched results of each query
+	 */
+	private static void check(InvertedIndex index, List<TreeSet<String>> queries, boolean exact, List<List<InvertedIndex.SearchResult>> results) {
+		for (int i = 0; i < queries.size(); i++) {
+			List<InvertedIndex.SearchResult> expected = index.genericSearch(queries.get(i), exact);
+			List<InvertedIndex.SearchResult> actual = results.get(i);
+			boolean same = expected.size() == actual.size();
+			for (int j = 0; same && j < expected.size(); j++) {
+				same = expected.get(j).getPath().equals(actual.get(j).getPath()) && expected.get(j).getCount() == actual.get(j).getCount();
+			}
+			if (!same) {
+				System.err.printf("Batched results differ for query: %s%n", String.join(" ", queries.get(i)));
+			}
+		}
+	}
+}
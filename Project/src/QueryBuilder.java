@@ -1,6 +1,13 @@
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
@@ -18,8 +25,26 @@ public class QueryBuilder implements QueryBuilderInterface{
 	/** Word mapped to list of search result objects */
 	private final TreeMap<String, List<InvertedIndex.SearchResult>> results;
 
-	/**	Inverted index holding word, location, and index count */
-	private final InvertedIndex index;
+	/** Parser that works out the search each line asks for and runs it on the index and cache */
+	private final QueryParser parser;
+
+	/** Number of queries searched together, or 0 to search each query as it is read */
+	private final int batch;
+
+	/** Joined stemmed words mapped to the stemmed words of the queries waiting for the next batch */
+	private final LinkedHashMap<String, TreeSet<String>> pending;
+
+	/** Spiller that moves results out of memory as queries complete, or null to keep every result in memory */
+	private final ResultSpiller spiller;
+
+	/** Milliseconds each query line may search for, or 0 to search without a deadline */
+	private final long deadline;
+
+	/** Keys of the queries whose search ran out of time and holds only the results found so far */
+	private final TreeSet<String> truncated;
+
+	/** Metrics the timeouts are counted in, or null if they are not counted */
+	private final WorkQueueMetrics metrics;
 
 	/**
 	 * 	Constructor for results (map of words and list of search result objects) and passed in inverted index
@@ -27,37 +52,133 @@ public class QueryBuilder implements QueryBuilderInterface{
 	 * @param exact determines whether to perform exact or partial search
 	 */
 	public QueryBuilder(InvertedIndex index, boolean exact) {
+		this(index, exact, new SearchOptions());
+	}
+
+	/**
+	 * 	Constructor for results (map of words and list of search result objects), passed in inverted index, and the
+	 * 	options of the searches: the cache, the number of results to keep, the batch size, the result spiller,
+	 * 	the deadline, and the metrics to count timeouts in
+	 * @param index the inverted index
+	 * @param exact determines whether to perform exact or partial search
+	 * @param options options of the searches
+	 */
+	public QueryBuilder(InvertedIndex index, boolean exact, SearchOptions options) {
 		results = new TreeMap<>();
-		this.index = index;
+		pending = new LinkedHashMap<>();
+		truncated = new TreeSet<>();
+		this.parser = new QueryParser(index, options.getCache(), options.getLimit());
+		this.batch = options.getBatch();
+		this.spiller = options.getSpiller();
+		this.deadline = options.getDeadline();
+		this.metrics = options.getMetrics();
+	}
+
+	@Override
+	public void queryStem(Path inputFile, boolean exact) throws IOException {
+		try {
+			QueryBuilderInterface.super.queryStem(inputFile, exact);
+		}
+		finally {
+			flush(exact);
+		}
 	}
 
 	/**
-	 * Stems the words and then adds it into the results
+	 * Stems the words and then adds it into the results, searching under the deadline if there is one.
+	 * Each query of a batch gets a deadline of its own when the batch is searched.
 	 * @param line	line to stem
 	 * @param exact determines whether to perform exact or partial search
 	 */
 	@Override
 	public void queryStem(String line, boolean exact) {
-		TreeSet<String> stemmedWords = new TreeSet<String>();
-		SnowballStemmer stemmer = new SnowballStemmer(DEFAULT);
-		String[] parsed = TextParser.parse(line);
+		SearchDeadline.run(deadline, () -> search(line, exact));
+	}
+
+	/**
+	 * Stems the words and then adds it into the results
+	 * @param line	line to stem
+	 * @param exact determines whether to perform exact or partial search
+	 */
+	private void search(String line, boolean exact) {
+		QueryParser.Query query = parser.parse(line);
 
-		if (parsed.length < 1) {
+		if (query == null || contains(query.getKey())) {
 			return;
 		}
 
-		for(String words : parsed) { //getting the words in the parsed line
-			stemmedWords.add(stemmer.stem(words).toString()); //adds stemmed word into tree set
+		if (batch > 0 && query.getWords() != null) {
+			pending.putIfAbsent(query.getKey(), query.getWords());
+			if (pending.size() >= batch) {
+				flush(exact);
+			}
+			return;
 		}
 
-		String joined = String.join(" ", stemmedWords);
+		put(query.getKey(), query.search(exact), SearchDeadline.truncated());
+	}
 
-		if (results.containsKey(joined)) {
+	/**
+	 * Searches for the queries waiting for the next batch all at once, each under a deadline of its own
+	 * @param exact determines whether to perform exact or partial search
+	 */
+	private void flush(boolean exact) {
+		if (pending.isEmpty()) {
 			return;
 		}
+		List<TreeSet<String>> queries = new ArrayList<>(pending.values());
+		BitSet cut = new BitSet();
+		List<List<InvertedIndex.SearchResult>> local = parser.search(queries, exact, deadline, cut);
+		Iterator<String> keys = pending.keySet().iterator();
+		for (int i = 0; i < local.size(); i++) {
+			put(keys.next(), local.get(i), cut.get(i));
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Checks to see if the query already has results, in memory or written by the spiller
+	 * @param key the key of the query
+	 * @return true if the query already has results
+	 */
+	private boolean contains(String key) {
+		return results.containsKey(key) || (spiller != null && spiller.contains(key));
+	}
+
+	/**
+	 * Adds the results of a query, letting the spiller move them out of memory if needed
+	 * @param key the key of the query
+	 * @param found the results of the query
+	 * @param cut whether the search of the query ran out of time
+	 */
+	private void put(String key, List<InvertedIndex.SearchResult> found, boolean cut) {
+		results.put(key, found);
+		if (cut && truncated.add(key) && metrics != null) {
+			metrics.timedOut();
+		}
+		if (spiller != null) {
+			try {
+				spiller.check(results, found.size());
+			}
+			catch (IOException e) {
+				System.err.printf("Unable to spill the query results due to error: %s", e.toString());
+			}
+		}
+	}
 
-		List<InvertedIndex.SearchResult> local = index.genericSearch(stemmedWords, exact);
-		results.put(joined, local);
+	@Override
+	public void clear() {
+		results.clear();
+		pending.clear();
+		truncated.clear();
+		if (spiller != null) {
+			try {
+				spiller.clear();
+			}
+			catch (IOException e) {
+				System.err.printf("Unable to delete the spilled query results due to error: %s", e.toString());
+			}
+		}
 	}
 
 	/**
@@ -67,6 +188,36 @@ public class QueryBuilder implements QueryBuilderInterface{
 	 */
 	@Override
 	public void queryJson(Path path) throws IOException{
-		SimpleJsonWriter.asQueryObject(results, path);
+		if (spiller != null) {
+			spiller.writeResults(results, path);
+		}
+		else {
+			SimpleJsonWriter.asQueryObject(results, path);
+		}
+	}
+
+	@Override
+	public Set<String> getTruncated() {
+		return Collections.unmodifiableSet(truncated);
+	}
+
+	/**
+	 * Writes the results held in memory one on each line with the scores at full precision
+	 * @param writer	the writer to use
+	 * @throws IOException if unable to write
+	 *
+	 * @see ResultSpiller#writeLines(java.util.Map, Writer)
+	 */
+	public void queryLines(Writer writer) throws IOException {
+		ResultSpiller.writeLines(results, writer);
+	}
+
+	/**
+	 * Writes the results held in memory in the same format as {@link #queryJson(Path)}
+	 * @param writer	the writer to use
+	 * @throws IOException if unable to write
+	 */
+	public void queryJson(Writer writer) throws IOException{
+		SimpleJsonWriter.asQueryObject(results, writer, 0);
 	}
 }
\ No newline at end of file
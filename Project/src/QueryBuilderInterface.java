@@ -3,6 +3,8 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * Query builder interface to share abstract methods without needing to implement through a common superclass.
@@ -49,6 +51,19 @@ public interface QueryBuilderInterface {
 	 */
 	public abstract void queryStem(String line, boolean exact);
 
+	/**
+	 * Abstract declaration of removing every stored result so queries can be run again
+	 */
+	public abstract void clear();
+
+	/**
+	 * Returns the keys of the queries that ran out of time and hold only the results found before the deadline
+	 * @return	keys of the cut short queries, empty if there is no deadline
+	 */
+	public default Set<String> getTruncated() {
+		return Collections.emptySet();
+	}
+
 	/**
 	 * Abstract declaration of writing method
 	 * @param path	path to file
@@ -0,0 +1,475 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded least-recently-used cache of search results keyed on the stemmed
+ * query and the type of search. Entries expire after a time to live, and are
+ * removed as soon as the inverted index changes any word that could affect
+ * them: one of their words for an exact or phrase search, or a word starting
+ * with one of their words for a partial search. A wildcard search is removed by
+ * a word starting with the part of a pattern before its first wildcard, and a
+ * fuzzy search by any change. Under a scoring model every entry is removed when
+ * the locations or their word counts change.
+ *
+ * @author EricChen
+ */
+public class QueryCache implements InvertedIndex.Listener {
+
+	/** Default maximum number of cached queries */
+	public static final int DEFAULT_SIZE = 1000;
+
+	/** Cached queries in least to most recently used order */
+	private final LinkedHashMap<String, Entry> entries;
+
+	/** Words of exact and phrase searches mapped to the keys of the entries using them */
+	private final Map<String, Set<String>> exactWords;
+
+	/** Words of partial searches mapped to the keys of the entries using them */
+	private final Map<String, Set<String>> prefixWords;
+
+	/** Maximum number of cached queries */
+	private final int size;
+
+	/** Milliseconds an entry stays valid, or 0 to keep entries until evicted or invalidated */
+	private final long ttl;
+
+	/** Number of times the index reported a change, used to avoid caching results computed during a change */
+	private long generation;
+
+	/** Number of lookups answered from the cache */
+	private final AtomicLong hits;
+
+	/** Number of lookups that had to search the index */
+	private final AtomicLong misses;
+
+	/** Number of entries removed because the cache was full */
+	private final AtomicLong evictions;
+
+	/** Number of entries removed because the index changed */
+	private final AtomicLong invalidations;
+
+	/** Number of entries removed because they expired */
+	private final AtomicLong expirations;
+
+	/**
+	 * Constructor for the cache
+	 *
+	 * @param size maximum number of cached queries
+	 * @param ttl milliseconds an entry stays valid, or 0 to keep entries until evicted or invalidated
+	 */
+	public QueryCache(int size, long ttl) {
+		this.size = size;
+		this.ttl = ttl;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.exactWords = new HashMap<>();
+		this.prefixWords = new HashMap<>();
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.evictions = new AtomicLong();
+		this.invalidations = new AtomicLong();
+		this.expirations = new AtomicLong();
+	}
+
+	/**
+	 * Returns the cached results of an exact or partial search, searching the
+	 * index and caching the results on a miss
+	 *
+	 * @param index the inverted index to search
+	 * @param words stemmed words to search for
+	 * @param exact whether to perform an exact or partial search
+	 * @param limit maximum number of results to return, or 0 to return every result
+	 * @return list of search result objects
+	 */
+	public List<InvertedIndex.SearchResult> search(InvertedIndex index, Collection<String> words, boolean exact, int limit) {
+		String key = key(words, exact, limit);
+		List<InvertedIndex.SearchResult> results = get(key);
+		if (results == null) {
+			long seen = getGeneration();
+			results = index.genericSearch(words, exact, limit);
+			put(key, words, !exact, results, seen);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the cached results of a batch of exact or partial searches, searching the index
+	 * for the queries that missed in one batch and caching their results unless they ran out of time
+	 *
+	 * @param index the inverted index to search
+	 * @param queries stemmed words to search for, one collection for each query
+	 * @param exact whether to perform an exact or partial search
+	 * @param limit maximum number of results to return for each query, or 0 to return every result
+	 * @param deadline milliseconds each query may be scored for, or 0 to search without a deadline of its own
+	 * @param truncated set to the positions of the queries that ran out of time
+	 * @return list of search result objects for each query, in the same order as the queries
+	 *
+	 * @see InvertedIndex#batchSearch(List, boolean, int, long, BitSet)
+	 */
+	public List<List<InvertedIndex.SearchResult>> search(InvertedIndex index, List<? extends Collection<String>> queries, boolean exact, int limit, long deadline, BitSet truncated) {
+		List<List<InvertedIndex.SearchResult>> results = new ArrayList<>(queries.size());
+		List<Integer> missing = new ArrayList<>();
+		List<Collection<String>> misses = new ArrayList<>();
+
+		for (Collection<String> words : queries) {
+			List<InvertedIndex.SearchResult> cached = get(key(words, exact, limit));
+			if (cached == null) {
+				missing.add(results.size());
+				misses.add(words);
+			}
+			results.add(cached);
+		}
+
+		if (!misses.isEmpty()) {
+			long seen = getGeneration();
+			BitSet cut = new BitSet();
+			List<List<InvertedIndex.SearchResult>> found = index.batchSearch(misses, exact, limit, deadline, cut);
+			for (int i = 0; i < found.size(); i++) {
+				results.set(missing.get(i), found.get(i));
+				if (cut.get(i)) {
+					truncated.set(missing.get(i));
+				}
+				else {
+					put(key(misses.get(i), exact, limit), misses.get(i), !exact, found.get(i), seen);
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the cached results of a phrase search, searching the index and
+	 * caching the results on a miss
+	 *
+	 * @param index the inverted index to search
+	 * @param phrase the phrase to search for
+	 * @param limit maximum number of results to return, or 0 to return every result
+	 * @return list of search result objects
+	 */
+	public List<InvertedIndex.SearchResult> search(InvertedIndex index, PhraseQuery phrase, int limit) {
+		String key = "phrase " + (limit > 0 ? "top " + limit + " " : "") + phrase.toString();
+		List<InvertedIndex.SearchResult> results = get(key);
+		if (results == null) {
+			long seen = getGeneration();
+			results = index.phraseSearch(phrase.getTerms(), phrase.getDistance(), limit);
+			put(key, phrase.getTerms(), false, results, seen);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the cached results of a boolean search, searching the index and
+	 * caching the results on a miss
+	 *
+	 * @param index the inverted index to search
+	 * @param query the boolean query to search for
+	 * @param exact whether words match exactly or as prefixes
+	 * @param limit maximum number of results to return, or 0 to return every result
+	 * @return list of search result objects
+	 */
+	public List<InvertedIndex.SearchResult> search(InvertedIndex index, BooleanQuery query, boolean exact, int limit) {
+		String key = "boolean " + (exact ? "exact " : "partial ") + (limit > 0 ? "top " + limit + " " : "") + query.toString();
+		List<InvertedIndex.SearchResult> results = get(key);
+		if (results == null) {
+			long seen = getGeneration();
+			results = index.booleanSearch(query, exact, limit);
+			put(key, query.getTerms(), !exact, results, seen);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the cached results of a fuzzy search, searching the index and
+	 * caching the results on a miss. Any word can be close enough to match, so
+	 * the entry is removed by any change to the index.
+	 *
+	 * @param index the inverted index to search
+	 * @param query the fuzzy query to search for
+	 * @param limit maximum number of results to return, or 0 to return every result
+	 * @return list of search result objects
+	 */
+	public List<InvertedIndex.SearchResult> search(InvertedIndex index, FuzzyQuery query, int limit) {
+		String key = "fuzzy " + (limit > 0 ? "top " + limit + " " : "") + query.toString();
+		List<InvertedIndex.SearchResult> results = get(key);
+		if (results == null) {
+			long seen = getGeneration();
+			results = index.fuzzySearch(query.getTerms(), query.getDistance(), limit);
+			put(key, Collections.singleton(""), true, results, seen);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the cached results of a wildcard search, searching the index and
+	 * caching the results on a miss
+	 *
+	 * @param index the inverted index to search
+	 * @param query the wildcard query to search for
+	 * @param exact whether words without wildcards match exactly or as prefixes
+	 * @param limit maximum number of results to return, or 0 to return every result
+	 * @return list of search result objects
+	 */
+	public List<InvertedIndex.SearchResult> search(InvertedIndex index, WildcardQuery query, boolean exact, int limit) {
+		String key = "wildcard " + (exact ? "exact " : "partial ") + (limit > 0 ? "top " + limit + " " : "") + query.toString();
+		List<InvertedIndex.SearchResult> results = get(key);
+		if (results == null) {
+			long seen = getGeneration();
+			results = index.wildcardSearch(query.getTerms(), exact, limit);
+			Set<String> prefixes = new HashSet<>();
+			for (String term : query.getTerms()) {
+				int wildcard = term.indexOf(GramIndex.WILDCARD);
+				prefixes.add(wildcard < 0 ? term : term.substring(0, wildcard));
+			}
+			put(key, prefixes, true, results, seen);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the key of an exact or partial search
+	 *
+	 * @param words stemmed words to search for
+	 * @param exact whether to perform an exact or partial search
+	 * @param limit maximum number of results to return, or 0 to return every result
+	 * @return key of the query
+	 */
+	private static String key(Collection<String> words, boolean exact, int limit) {
+		return (exact ? "exact " : "partial ") + (limit > 0 ? "top " + limit + " " : "") + String.join(" ", words);
+	}
+
+	/**
+	 * Returns a copy of the cached results for the key
+	 *
+	 * @param key the key of the query
+	 * @return copy of the cached results, or null if missing or expired
+	 */
+	private synchronized List<InvertedIndex.SearchResult> get(String key) {
+		Entry entry = entries.get(key);
+		if (entry != null && ttl > 0 && System.currentTimeMillis() - entry.created > ttl) {
+			remove(entry);
+			expirations.incrementAndGet();
+			entry = null;
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return new ArrayList<>(entry.results);
+	}
+
+	/**
+	 * Caches the results unless the index changed while they were being computed,
+	 * or the search ran out of time and the results are incomplete
+	 *
+	 * @param key the key of the query
+	 * @param words stemmed words of the query
+	 * @param prefix whether the words are prefixes of a partial search
+	 * @param results the results to cache
+	 * @param seen the generation before the results were computed
+	 */
+	private synchronized void put(String key, Collection<String> words, boolean prefix, List<InvertedIndex.SearchResult> results, long seen) {
+		if (seen != generation || size <= 0 || SearchDeadline.truncated()) {
+			return;
+		}
+
+		Entry old = entries.get(key);
+		if (old != null) {
+			remove(old);
+		}
+
+		Entry entry = new Entry(key, new HashSet<>(words), prefix, new ArrayList<>(results));
+		entries.put(key, entry);
+		Map<String, Set<String>> lookup = prefix ? prefixWords : exactWords;
+		for (String word : entry.words) {
+			lookup.computeIfAbsent(word, w -> new HashSet<>()).add(key);
+		}
+
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (entries.size() > size && iterator.hasNext()) {
+			Entry eldest = iterator.next();
+			iterator.remove();
+			unlink(eldest);
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes every entry that uses one of the words, or a prefix of one of the words
+	 * including the empty prefix
+	 */
+	@Override
+	public synchronized void wordsChanged(Collection<String> words) {
+		generation++;
+		if (entries.isEmpty()) {
+			return;
+		}
+
+		Set<String> affected = new HashSet<>();
+		for (String word : words) {
+			Set<String> exact = exactWords.get(word);
+			if (exact != null) {
+				affected.addAll(exact);
+			}
+			for (int i = 0; i <= word.length(); i++) {
+				Set<String> prefix = prefixWords.get(word.substring(0, i));
+				if (prefix != null) {
+					affected.addAll(prefix);
+				}
+			}
+		}
+
+		for (String key : affected) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				remove(entry);
+				invalidations.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Removes every entry, since the scores of all of them depend on the number of documents and their lengths
+	 */
+	@Override
+	public synchronized void locationsChanged() {
+		invalidations.addAndGet(entries.size());
+		clear();
+	}
+
+	/**
+	 * Removes every entry from the cache
+	 */
+	public synchronized void clear() {
+		generation++;
+		entries.clear();
+		exactWords.clear();
+		prefixWords.clear();
+	}
+
+	/**
+	 * Returns the current generation
+	 *
+	 * @return number of times the index reported a change
+	 */
+	private synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Removes the entry from the cache and the word lookups
+	 *
+	 * @param entry the entry to remove
+	 */
+	private void remove(Entry entry) {
+		entries.remove(entry.key);
+		unlink(entry);
+	}
+
+	/**
+	 * Removes the entry from the word lookups
+	 *
+	 * @param entry the entry to remove
+	 */
+	private void unlink(Entry entry) {
+		Map<String, Set<String>> lookup = entry.prefix ? prefixWords : exactWords;
+		for (String word : entry.words) {
+			Set<String> keys = lookup.get(word);
+			if (keys != null) {
+				keys.remove(entry.key);
+				if (keys.isEmpty()) {
+					lookup.remove(word);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of cached queries
+	 *
+	 * @return number of cached queries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of lookups answered from the cache
+	 *
+	 * @return number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups that had to search the index
+	 *
+	 * @return number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the fraction of lookups answered from the cache
+	 *
+	 * @return hit ratio between 0 and 1
+	 */
+	public double getHitRatio() {
+		long total = hits.get() + misses.get();
+		return total == 0 ? 0 : hits.get() * 1.0 / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Query cache: %d hits, %d misses (%.1f%% hit ratio), %d evictions, %d invalidations, %d expirations",
+				hits.get(), misses.get(), getHitRatio() * 100, evictions.get(), invalidations.get(), expirations.get());
+	}
+
+	/**
+	 * Cached results of a single query
+	 */
+	private static class Entry {
+
+		/** Key of the query */
+		private final String key;
+
+		/** Stemmed words of the query */
+		private final Set<String> words;
+
+		/** Whether the words are prefixes of a partial search */
+		private final boolean prefix;
+
+		/** The cached results */
+		private final List<InvertedIndex.SearchResult> results;
+
+		/** Time the entry was created in milliseconds */
+		private final long created;
+
+		/**
+		 * Constructor for the entry
+		 *
+		 * @param key key of the query
+		 * @param words stemmed words of the query
+		 * @param prefix whether the words are prefixes of a partial search
+		 * @param results the cached results
+		 */
+		public Entry(String key, Set<String> words, boolean prefix, List<InvertedIndex.SearchResult> results) {
+			this.key = key;
+			this.words = words;
+			this.prefix = prefix;
+			this.results = results;
+			this.created = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * Parses a line of queries into the kind of search it asks for, in the order
+ * phrase, fuzzy, wildcard, boolean, and plain words, and runs that search
+ * through the cache if there is one. The query builders and the search server
+ * share it so every kind of query is parsed, cached, and searched the same way.
+ *
+ * @author EricChen
+ */
+public class QueryParser {
+
+	/** Inverted index to search */
+	private final InvertedIndex index;
+
+	/** Cache of search results, or null if results are not cached */
+	private final QueryCache cache;
+
+	/** Maximum number of results kept for each query, or 0 to keep every result */
+	private final int limit;
+
+	/**
+	 * Constructor for the parser
+	 *
+	 * @param index the inverted index to search
+	 * @param cache cache of search results, or null if results are not cached
+	 * @param limit maximum number of results kept for each query, or 0 to keep every result
+	 */
+	public QueryParser(InvertedIndex index, QueryCache cache, int limit) {
+		this.index = index;
+		this.cache = cache;
+		this.limit = limit;
+	}
+
+	/**
+	 * Stems the line and works out which search it asks for
+	 *
+	 * @param line the line to parse
+	 * @return the parsed query, or null if the line has no words
+	 */
+	public Query parse(String line) {
+		SnowballStemmer stemmer = new SnowballStemmer(QueryBuilder.DEFAULT);
+
+		PhraseQuery phrase = PhraseQuery.parse(line, stemmer);
+		if (phrase != null) {
+			return new Query(phrase.toString(), phrase);
+		}
+
+		FuzzyQuery fuzzy = FuzzyQuery.parse(line, stemmer);
+		if (fuzzy != null) {
+			return new Query(fuzzy.toString(), fuzzy);
+		}
+
+		WildcardQuery wildcard = WildcardQuery.parse(line, stemmer);
+		if (wildcard != null) {
+			return new Query(wildcard.toString(), wildcard);
+		}
+
+		BooleanQuery query = BooleanQuery.parse(line, stemmer);
+		if (query != null) {
+			return new Query(query.toString(), query);
+		}
+
+		String[] parsed = TextParser.parse(line);
+		if (parsed.length < 1) {
+			return null;
+		}
+
+		TreeSet<String> stemmedWords = new TreeSet<>();
+		for (String words : parsed) {
+			stemmedWords.add(stemmer.stem(words).toString());
+		}
+		return new Query(String.join(" ", stemmedWords), stemmedWords);
+	}
+
+	/**
+	 * Searches for a batch of plain word queries all at once, each under a deadline of its own
+	 *
+	 * @param queries stemmed words of each query
+	 * @param exact whether to perform an exact or partial search
+	 * @param deadline milliseconds each query may be scored for, or 0 to search without a deadline
+	 * @param truncated set to the positions of the queries that ran out of time
+	 * @return results of each query, in the same order as the queries
+	 */
+	public List<List<InvertedIndex.SearchResult>> search(List<? extends TreeSet<String>> queries, boolean exact, long deadline, BitSet truncated) {
+		return cache != null ? cache.search(index, queries, exact, limit, deadline, truncated) : index.batchSearch(queries, exact, limit, deadline, truncated);
+	}
+
+	/**
+	 * A parsed line, holding its key in the results and the query to search for
+	 */
+	public class Query {
+
+		/** Key of the query in the results */
+		private final String key;
+
+		/** The phrase, fuzzy, wildcard, or boolean query, or null for plain words */
+		private final Object query;
+
+		/** Stemmed words of plain word queries, or null for the other kinds */
+		private final TreeSet<String> words;
+
+		/**
+		 * Constructor for a phrase, fuzzy, wildcard, or boolean query
+		 *
+		 * @param key the key of the query in the results
+		 * @param query the parsed query
+		 */
+		private Query(String key, Object query) {
+			this.key = key;
+			this.query = query;
+			this.words = null;
+		}
+
+		/**
+		 * Constructor for a query of plain words
+		 *
+		 * @param key the key of the query in the results
+		 * @param words the stemmed words
+		 */
+		private Query(String key, TreeSet<String> words) {
+			this.key = key;
+			this.query = null;
+			this.words = words;
+		}
+
+		/**
+		 * Returns the key of the query in the results
+		 *
+		 * @return the key
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * Returns the stemmed words of a plain word query, which can be searched in a batch
+		 *
+		 * @return the stemmed words, or null if the query is not plain words
+		 *
+		 * @see QueryParser#search(List, boolean, long, BitSet)
+		 */
+		public TreeSet<String> getWords() {
+			return words;
+		}
+
+		/**
+		 * Searches for the query, through the cache if there is one
+		 *
+		 * @param exact whether words match exactly or as prefixes, where the kind of query allows both
+		 * @return the results of the query
+		 */
+		public List<InvertedIndex.SearchResult> search(boolean exact) {
+			if (query instanceof PhraseQuery) {
+				PhraseQuery phrase = (PhraseQuery) query;
+				return cache != null ? cache.search(index, phrase, limit) : index.phraseSearch(phrase.getTerms(), phrase.getDistance(), limit);
+			}
+			if (query instanceof FuzzyQuery) {
+				FuzzyQuery fuzzy = (FuzzyQuery) query;
+				return cache != null ? cache.search(index, fuzzy, limit) : index.fuzzySearch(fuzzy.getTerms(), fuzzy.getDistance(), limit);
+			}
+			if (query instanceof WildcardQuery) {
+				WildcardQuery wildcard = (WildcardQuery) query;
+				return cache != null ? cache.search(index, wildcard, exact, limit) : index.wildcardSearch(wildcard.getTerms(), exact, limit);
+			}
+			if (query instanceof BooleanQuery) {
+				BooleanQuery bool = (BooleanQuery) query;
+				return cache != null ? cache.search(index, bool, exact, limit) : index.booleanSearch(bool, exact, limit);
+			}
+			return cache != null ? cache.search(index, words, exact, limit) : index.genericSearch(words, exact, limit);
+		}
+	}
+}
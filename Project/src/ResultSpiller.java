@@ -0,0 +1,468 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Keeps the search results of the query builders under a memory budget. In the
+ * sorted mode, results are flushed to sorted run files on disk whenever the
+ * budget is reached, and the runs are combined with an external k-way merge
+ * into the same results JSON file as {@link SimpleJsonWriter#asQueryObject(Map, Path)}.
+ * In the unordered mode, every query is written as soon as it completes as one
+ * line of newline delimited JSON, for example
+ * {@code {"query": "word", "results": [{"where": "path", "count": 1, "score": 0.50000000}]}}.
+ *
+ * Each line of a run holds one query and one of its results, for example
+ * {@code query\tcount\tscore\tpath}, or only the query if it has no results.
+ * Lines are sorted by query, and the results of a query keep their order.
+ * Only the queries already written are remembered, so repeated query lines are
+ * not searched again once their results leave memory.
+ *
+ * @author EricChen
+ */
+public class ResultSpiller {
+
+	/** Default memory budget for the results in megabytes */
+	public static final int DEFAULT_MEMORY = 64;
+
+	/** Rough number of bytes used by a single search result held in memory */
+	public static final int BYTES_PER_RESULT = 128;
+
+	/** Separator between the fields of a run line */
+	private static final char SEPARATOR = '\t';
+
+	/** Maximum number of results to hold in memory before spilling */
+	private final long budget;
+
+	/** Whether queries are written as they complete instead of sorted */
+	private final boolean unordered;
+
+	/** Directory holding the run files */
+	private final Path directory;
+
+	/** Run files written so far, in the order they were written */
+	private final List<Path> runs;
+
+	/** Queries written to the runs since the spiller was last cleared */
+	private final Set<String> written;
+
+	/** Number of results held in memory since the last spill */
+	private long buffered;
+
+	/** Writer for the newline delimited JSON in the unordered mode, or null until the first query */
+	private BufferedWriter stream;
+
+	/**
+	 * Constructor for the spiller
+	 *
+	 * @param megabytes memory budget for the results in megabytes
+	 * @param unordered whether to write queries as they complete instead of sorted
+	 * @throws IOException if unable to create the temporary run directory
+	 */
+	public ResultSpiller(int megabytes, boolean unordered) throws IOException {
+		this.budget = Math.max(1, megabytes * 1024L * 1024L / BYTES_PER_RESULT);
+		this.unordered = unordered;
+		this.directory = Files.createTempDirectory("result-runs");
+		this.runs = new ArrayList<>();
+		this.written = new HashSet<>();
+		this.buffered = 0;
+	}
+
+	/**
+	 * Checks to see if the results of a query were already written out of memory
+	 *
+	 * @param query the key of the query
+	 * @return true if the query was written
+	 */
+	public synchronized boolean contains(String query) {
+		return written.contains(query);
+	}
+
+	/**
+	 * Counts the results just added to the map, and moves the map out of memory if
+	 * it holds more results than the budget allows. In the unordered mode the map is
+	 * written out every time.
+	 *
+	 * @param results the query results held in memory, which are cleared if written
+	 * @param added number of results just added
+	 * @throws IOException if unable to write the results
+	 */
+	public synchronized void check(TreeMap<String, List<InvertedIndex.SearchResult>> results, int added) throws IOException {
+		buffered += added;
+		if (unordered) {
+			write(results);
+		}
+		else if (buffered > budget) {
+			spill(results);
+		}
+	}
+
+	/**
+	 * Writes the queries to the newline delimited JSON and clears them
+	 *
+	 * @param results the query results held in memory
+	 * @throws IOException if unable to write the results
+	 */
+	private void write(TreeMap<String, List<InvertedIndex.SearchResult>> results) throws IOException {
+		if (stream == null) {
+			Path run = directory.resolve("results.ndjson");
+			stream = Files.newBufferedWriter(run, StandardCharsets.UTF_8);
+			runs.add(run);
+		}
+		for (Map.Entry<String, List<InvertedIndex.SearchResult>> entry : results.entrySet()) {
+			stream.write("{\"query\": ");
+			SimpleJsonWriter.quote(entry.getKey(), stream);
+			stream.write(", \"results\": [");
+			List<InvertedIndex.SearchResult> found = entry.getValue();
+			for (int i = 0; i < found.size(); i++) {
+				if (i > 0) {
+					stream.write(", ");
+				}
+				stream.write("{\"where\": ");
+				SimpleJsonWriter.quote(found.get(i).getPath(), stream);
+				stream.write(", \"count\": " + found.get(i).getCount());
+				stream.write(", \"score\": " + String.format("%.8f", found.get(i).getScore()) + "}");
+			}
+			stream.write("]}\n");
+			written.add(entry.getKey());
+		}
+		results.clear();
+		buffered = 0;
+	}
+
+	/**
+	 * Spills the results held in memory into a new sorted run and clears them
+	 *
+	 * @param results the query results held in memory
+	 * @throws IOException if unable to write the run
+	 */
+	private void spill(TreeMap<String, List<InvertedIndex.SearchResult>> results) throws IOException {
+		if (results.isEmpty()) {
+			return;
+		}
+		Path run = directory.resolve("run-" + runs.size() + ".txt");
+		try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+			writeLines(results, writer);
+		}
+		written.addAll(results.keySet());
+		runs.add(run);
+		results.clear();
+		buffered = 0;
+	}
+
+	/**
+	 * Writes the results in the format of the runs, one line for each result with
+	 * the score at full precision, or only the query if it has no results
+	 *
+	 * @param results the results of each query
+	 * @param writer the writer to use
+	 * @throws IOException if unable to write the results
+	 */
+	public static void writeLines(Map<String, List<InvertedIndex.SearchResult>> results, Writer writer) throws IOException {
+		for (Map.Entry<String, List<InvertedIndex.SearchResult>> entry : results.entrySet()) {
+			if (entry.getValue().isEmpty()) {
+				writer.write(entry.getKey());
+				writer.write('\n');
+			}
+			for (InvertedIndex.SearchResult result : entry.getValue()) {
+				writer.write(entry.getKey());
+				writer.write(SEPARATOR);
+				writer.write(Integer.toString(result.getCount()));
+				writer.write(SEPARATOR);
+				writer.write(Double.toString(result.getScore()));
+				writer.write(SEPARATOR);
+				writer.write(result.getPath());
+				writer.write('\n');
+			}
+		}
+	}
+
+	/**
+	 * Reads results written by {@link #writeLines(Map, Writer)}
+	 *
+	 * @param reader the reader to use
+	 * @param owner the index the results belong to
+	 * @return the results of each query
+	 * @throws IOException if unable to read the results or a line is malformed
+	 */
+	public static TreeMap<String, List<InvertedIndex.SearchResult>> readLines(BufferedReader reader, InvertedIndex owner) throws IOException {
+		TreeMap<String, List<InvertedIndex.SearchResult>> results = new TreeMap<>();
+		String text;
+		while ((text = reader.readLine()) != null) {
+			if (text.isEmpty()) {
+				continue;
+			}
+			Line line;
+			try {
+				line = new Line(text);
+			}
+			catch (NumberFormatException e) {
+				throw new IOException("Malformed result: " + e.getMessage());
+			}
+			List<InvertedIndex.SearchResult> found = results.computeIfAbsent(line.query, query -> new ArrayList<>());
+			if (line.path != null) {
+				found.add(owner.new SearchResult(line.path, line.count, line.score));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Writes the results left in memory along with every result written so far to
+	 * the results file, and clears them. In the sorted mode the runs are merged
+	 * keeping only one query in memory at a time.
+	 *
+	 * @param results the query results held in memory
+	 * @param path the location of the results file
+	 * @throws IOException if unable to read the runs or write the file
+	 */
+	public synchronized void writeResults(TreeMap<String, List<InvertedIndex.SearchResult>> results, Path path) throws IOException {
+		if (unordered) {
+			write(results);
+			stream.close();
+			stream = null;
+			Files.move(runs.get(0), path, StandardCopyOption.REPLACE_EXISTING);
+			runs.clear();
+		}
+		else if (runs.isEmpty()) {
+			SimpleJsonWriter.asQueryObject(results, path);
+		}
+		else {
+			spill(results);
+			try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+				writeResults(writer);
+			}
+		}
+		clear();
+	}
+
+	/**
+	 * Merges the runs into the writer using the same format as
+	 * {@link SimpleJsonWriter#asQueryObject(Map, Writer, int)}
+	 *
+	 * @param writer the writer to use
+	 * @throws IOException if unable to read the runs or write the output
+	 */
+	private void writeResults(Writer writer) throws IOException {
+		try (Merger merger = new Merger(runs)) {
+			writer.write("{");
+			boolean first = true;
+			while (merger.hasNext()) {
+				writer.write(first ? "\n" : ",\n");
+				first = false;
+				String query = merger.nextQuery();
+				SimpleJsonWriter.quote(query, writer, 1);
+				writer.write(": [");
+				boolean firstResult = true;
+				for (Line line : merger.results(query)) {
+					if (line.path != null) {
+						if (!firstResult) {
+							writer.write(",");
+						}
+						firstResult = false;
+						SimpleJsonWriter.writeResult(line.path, line.count, line.score, writer);
+					}
+				}
+				writer.write("\n\t]");
+			}
+			writer.write("\n");
+			SimpleJsonWriter.indent("}", writer, 0);
+		}
+	}
+
+	/**
+	 * Deletes the runs and forgets the written queries so the queries can be run again
+	 *
+	 * @throws IOException if unable to delete the files
+	 */
+	public synchronized void clear() throws IOException {
+		if (stream != null) {
+			stream.close();
+			stream = null;
+		}
+		for (Path run : runs) {
+			Files.deleteIfExists(run);
+		}
+		runs.clear();
+		written.clear();
+		buffered = 0;
+	}
+
+	/**
+	 * Deletes the run files and the run directory
+	 *
+	 * @throws IOException if unable to delete the files
+	 */
+	public synchronized void delete() throws IOException {
+		clear();
+		Files.deleteIfExists(directory);
+	}
+
+	/**
+	 * A single line of a run file
+	 */
+	private static class Line {
+
+		/** Key of the query */
+		private final String query;
+
+		/** Number of matches, or 0 if the query has no results */
+		private final int count;
+
+		/** Score of the result, or 0 if the query has no results */
+		private final double score;
+
+		/** Path of the result, or null if the query has no results */
+		private final String path;
+
+		/**
+		 * Parses a run line
+		 *
+		 * @param line the line to parse
+		 */
+		public Line(String line) {
+			String[] fields = line.split(String.valueOf(SEPARATOR), 4);
+			this.query = fields[0];
+			this.count = fields.length == 4 ? Integer.parseInt(fields[1]) : 0;
+			this.score = fields.length == 4 ? Double.parseDouble(fields[2]) : 0;
+			this.path = fields.length == 4 ? fields[3] : null;
+		}
+	}
+
+	/**
+	 * Reader that remembers the current line of a single run
+	 */
+	private static class RunReader implements Comparable<RunReader> {
+
+		/** Reader for the run file */
+		private final BufferedReader reader;
+
+		/** Position of the run in the order the runs were written */
+		private final int order;
+
+		/** Current line of the run, or null if the run is exhausted */
+		private Line current;
+
+		/**
+		 * Opens the run and reads its first line
+		 *
+		 * @param run the run file
+		 * @param order position of the run in the order the runs were written
+		 * @throws IOException if unable to read the file
+		 */
+		public RunReader(Path run, int order) throws IOException {
+			this.reader = Files.newBufferedReader(run, StandardCharsets.UTF_8);
+			this.order = order;
+			advance();
+		}
+
+		/**
+		 * Moves to the next line of the run
+		 *
+		 * @throws IOException if unable to read the file
+		 */
+		public void advance() throws IOException {
+			String line = reader.readLine();
+			current = line == null ? null : new Line(line);
+		}
+
+		@Override
+		public int compareTo(RunReader other) {
+			int compare = this.current.query.compareTo(other.current.query);
+			if (compare == 0) {
+				return Integer.compare(this.order, other.order);
+			}
+			return compare;
+		}
+	}
+
+	/**
+	 * K-way merge over all of the runs using a priority queue of run readers
+	 */
+	private static class Merger implements AutoCloseable {
+
+		/** Run readers ordered by their current query */
+		private final PriorityQueue<RunReader> queue;
+
+		/** Every run reader, so they can be closed */
+		private final List<RunReader> readers;
+
+		/**
+		 * Opens every run
+		 *
+		 * @param runs the run files to merge
+		 * @throws IOException if unable to read the files
+		 */
+		public Merger(List<Path> runs) throws IOException {
+			this.queue = new PriorityQueue<>(Math.max(1, runs.size()));
+			this.readers = new ArrayList<>();
+			for (Path run : runs) {
+				RunReader reader = new RunReader(run, readers.size());
+				readers.add(reader);
+				if (reader.current != null) {
+					queue.add(reader);
+				}
+			}
+		}
+
+		/**
+		 * Checks to see if there are queries left to merge
+		 *
+		 * @return true if any run has lines left
+		 */
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		/**
+		 * Returns the smallest query left in the runs
+		 *
+		 * @return smallest query left in the runs
+		 */
+		public String nextQuery() {
+			return queue.peek().current.query;
+		}
+
+		/**
+		 * Removes every line for the query from the runs. Only the lines of the first
+		 * run holding the query are kept, since a query is only written once.
+		 *
+		 * @param query the smallest query left in the runs
+		 * @return lines of the query in order
+		 * @throws IOException if unable to read the runs
+		 */
+		public List<Line> results(String query) throws IOException {
+			List<Line> lines = new ArrayList<>();
+			int order = queue.peek().order;
+			while (!queue.isEmpty() && queue.peek().current.query.equals(query)) {
+				RunReader reader = queue.poll();
+				if (reader.order == order) {
+					lines.add(reader.current);
+				}
+				reader.advance();
+				if (reader.current != null) {
+					queue.add(reader);
+				}
+			}
+			return lines;
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (RunReader reader : readers) {
+				reader.reader.close();
+			}
+		}
+	}
+}
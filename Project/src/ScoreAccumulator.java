@@ -0,0 +1,248 @@
+/**
+ * Match counts of the documents hit by one search, kept in an array indexed by
+ * document number, along with the summed weights when a {@link ScoringModel}
+ * is used. Each thread reuses its own accumulators from one search to the next,
+ * and only the documents that were hit are reset, so a search costs time in the
+ * number of matches rather than the number of documents.
+ *
+ * @author EricChen
+ */
+public class ScoreAccumulator {
+
+	/** Accumulator reused by each thread */
+	private static final ThreadLocal<ScoreAccumulator> LOCAL = ThreadLocal.withInitial(ScoreAccumulator::new);
+
+	/** Number of matches of each document, 0 for documents not hit yet */
+	private int[] counts;
+
+	/** Sum of the weights of each document, used only when weighted */
+	private double[] weights;
+
+	/** Documents hit so far, in the order they were first hit */
+	private int[] hits;
+
+	/** Number of documents hit so far */
+	private int size;
+
+	/** Whether weights were added since the accumulator was last cleared */
+	private boolean weighted;
+
+	/** Creates an empty accumulator */
+	private ScoreAccumulator() {
+		this.counts = new int[0];
+		this.weights = new double[0];
+		this.hits = new int[0];
+		this.size = 0;
+		this.weighted = false;
+	}
+
+	/**
+	 * Returns the empty accumulator of the calling thread, big enough for the documents
+	 *
+	 * @param documents number of documents that can be hit
+	 * @return accumulator of the calling thread
+	 */
+	public static ScoreAccumulator get(int documents) {
+		ScoreAccumulator accumulator = LOCAL.get();
+		accumulator.clear();
+		if (accumulator.counts.length < documents) {
+			accumulator.counts = new int[documents];
+			accumulator.weights = new double[documents];
+			accumulator.hits = new int[documents];
+		}
+		return accumulator;
+	}
+
+	/**
+	 * Adds matches to the count of a document
+	 *
+	 * @param doc number of the document
+	 * @param matches number of matches to add, which must be positive
+	 */
+	public void add(int doc, int matches) {
+		if (counts[doc] == 0) {
+			hits[size++] = doc;
+		}
+		counts[doc] += matches;
+	}
+
+	/**
+	 * Adds matches to the count of a document and a weight to its score
+	 *
+	 * @param doc number of the document
+	 * @param matches number of matches to add, which must be positive
+	 * @param weight weight to add to the score
+	 */
+	public void add(int doc, int matches, double weight) {
+		add(doc, matches);
+		weights[doc] += weight;
+		weighted = true;
+	}
+
+	/**
+	 * Adds the matches of every posting of a word
+	 *
+	 * @param docs document numbers of the word
+	 * @param freqs number of matches in each document
+	 */
+	public void addAll(int[] docs, int[] freqs) {
+		for (int i = 0; i < docs.length; i++) {
+			add(docs[i], freqs[i]);
+		}
+	}
+
+	/**
+	 * Adds the matches and weights of every posting of a word
+	 *
+	 * @param docs document numbers of the word
+	 * @param freqs number of matches in each document
+	 * @param impacts weight of the word in each document, or null to only count matches
+	 */
+	public void addAll(int[] docs, int[] freqs, double[] impacts) {
+		addAll(docs, freqs, impacts, 0, docs.length);
+	}
+
+	/**
+	 * Adds the matches and weights of some of the postings of a word
+	 *
+	 * @param docs document numbers of the word
+	 * @param freqs number of matches in each document
+	 * @param impacts weight of the word in each document, or null to only count matches
+	 * @param from position of the first posting to add
+	 * @param to position after the last posting to add
+	 */
+	public void addAll(int[] docs, int[] freqs, double[] impacts, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (impacts != null) {
+				add(docs[i], freqs[i], impacts[i]);
+			}
+			else {
+				add(docs[i], freqs[i]);
+			}
+		}
+	}
+
+	/**
+	 * Adds the documents another thread hit, in the order it hit them
+	 *
+	 * @param other documents hit by another accumulator
+	 */
+	public void addAll(Hits other) {
+		for (int i = 0; i < other.docs.length; i++) {
+			if (other.weights != null) {
+				add(other.docs[i], other.counts[i], other.weights[i]);
+			}
+			else {
+				add(other.docs[i], other.counts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Copies the documents hit so far so they can be handed to another thread, and clears this accumulator
+	 *
+	 * @return copy of the documents hit
+	 */
+	public Hits drain() {
+		Hits copy = new Hits(size, weighted);
+		for (int i = 0; i < size; i++) {
+			int doc = hits[i];
+			copy.docs[i] = doc;
+			copy.counts[i] = counts[doc];
+			if (weighted) {
+				copy.weights[i] = weights[doc];
+			}
+		}
+		clear();
+		return copy;
+	}
+
+	/**
+	 * Returns the number of documents hit
+	 *
+	 * @return number of documents hit
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a document that was hit
+	 *
+	 * @param i position of the document in the order it was first hit
+	 * @return number of the document
+	 */
+	public int getDocument(int i) {
+		return hits[i];
+	}
+
+	/**
+	 * Returns the number of matches of a document
+	 *
+	 * @param doc number of the document
+	 * @return number of matches, or 0 if it was not hit
+	 */
+	public int getCount(int doc) {
+		return counts[doc];
+	}
+
+	/**
+	 * Returns the summed weights of a document
+	 *
+	 * @param doc number of the document
+	 * @return summed weights, or 0 if it was not hit or no weights were added
+	 */
+	public double getWeight(int doc) {
+		return weighted ? weights[doc] : 0;
+	}
+
+	/**
+	 * Returns whether weights were added, so documents are scored by their weights instead of their counts
+	 *
+	 * @return whether weights were added
+	 */
+	public boolean isWeighted() {
+		return weighted;
+	}
+
+	/**
+	 * Resets the counts of the documents that were hit
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			counts[hits[i]] = 0;
+			if (weighted) {
+				weights[hits[i]] = 0;
+			}
+		}
+		size = 0;
+		weighted = false;
+	}
+
+	/**
+	 * Copy of the documents an accumulator hit, in the order they were first hit
+	 */
+	public static class Hits {
+
+		/** Numbers of the documents hit */
+		private final int[] docs;
+
+		/** Number of matches of each document */
+		private final int[] counts;
+
+		/** Summed weights of each document, or null if no weights were added */
+		private final double[] weights;
+
+		/**
+		 * Creates an empty copy of the given size
+		 *
+		 * @param size number of documents hit
+		 * @param weighted whether weights were added
+		 */
+		private Hits(int size, boolean weighted) {
+			this.docs = new int[size];
+			this.counts = new int[size];
+			this.weights = weighted ? new double[size] : null;
+		}
+	}
+}
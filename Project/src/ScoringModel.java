@@ -0,0 +1,100 @@
+/**
+ * Scores how well a document matches a single query word. The score of a
+ * document is the sum of the weights of the query words it contains. When no
+ * model is set, searches keep the original score of matches divided by the
+ * word count of the document.
+ *
+ * @author EricChen
+ */
+public interface ScoringModel {
+
+	/**
+	 * Returns the weight of a word in a document
+	 *
+	 * @param freq number of times the word appears in the document
+	 * @param length word count of the document
+	 * @param df number of documents containing the word
+	 * @param documents number of documents in the index
+	 * @param averageLength average word count of the documents
+	 * @return weight of the word in the document, never negative
+	 */
+	public double weight(int freq, int length, int df, int documents, double averageLength);
+
+	/**
+	 * Returns the model with the given name
+	 *
+	 * @param name name of the model, either bm25 or tfidf
+	 * @return the model, or null if the name is not known
+	 */
+	public static ScoringModel forName(String name) {
+		if ("bm25".equalsIgnoreCase(name)) {
+			return new BM25();
+		}
+		if ("tfidf".equalsIgnoreCase(name)) {
+			return new TfIdf();
+		}
+		return null;
+	}
+
+	/**
+	 * Okapi BM25, which saturates repeated matches and normalizes by document length
+	 */
+	public static class BM25 implements ScoringModel {
+
+		/** Default saturation of repeated matches */
+		public static final double DEFAULT_K1 = 1.2;
+
+		/** Default strength of the document length normalization */
+		public static final double DEFAULT_B = 0.75;
+
+		/** Saturation of repeated matches */
+		private final double k1;
+
+		/** Strength of the document length normalization, between 0 and 1 */
+		private final double b;
+
+		/** Creates the model with the default parameters */
+		public BM25() {
+			this(DEFAULT_K1, DEFAULT_B);
+		}
+
+		/**
+		 * Creates the model with the given parameters
+		 *
+		 * @param k1 saturation of repeated matches
+		 * @param b strength of the document length normalization, between 0 and 1
+		 */
+		public BM25(double k1, double b) {
+			this.k1 = k1;
+			this.b = b;
+		}
+
+		@Override
+		public double weight(int freq, int length, int df, int documents, double averageLength) {
+			double idf = Math.log(1 + (documents - df + 0.5) / (df + 0.5));
+			double norm = k1 * (1 - b + b * length / averageLength);
+			return idf * freq * (k1 + 1) / (freq + norm);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("bm25(k1=%.2f, b=%.2f)", k1, b);
+		}
+	}
+
+	/**
+	 * Matches divided by the document word count, weighted by the inverse document frequency
+	 */
+	public static class TfIdf implements ScoringModel {
+
+		@Override
+		public double weight(int freq, int length, int df, int documents, double averageLength) {
+			return freq * 1.0 / length * Math.log(1 + documents * 1.0 / df);
+		}
+
+		@Override
+		public String toString() {
+			return "tfidf";
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * Time budget of the search running on the calling thread. The query builders
+ * start a deadline before searching a query line, and the loops of the inverted
+ * index that expand prefixes or add up scores check it as they go. Once the
+ * budget runs out they stop early and rank whatever they have found so far, and
+ * the deadline remembers that the results were cut short.
+ *
+ * @author EricChen
+ */
+public class SearchDeadline {
+
+	/** Number of steps of a tight loop between looks at the clock */
+	private static final int STEPS = 256;
+
+	/** Deadline of the search running on each thread, or null if it has none */
+	private static final ThreadLocal<SearchDeadline> CURRENT = new ThreadLocal<>();
+
+	/** Time the budget runs out in nanoseconds */
+	private final long end;
+
+	/** Whether a search stopped early because the budget ran out */
+	private volatile boolean expired;
+
+	/**
+	 * Constructor for the deadline, starting the budget now
+	 *
+	 * @param millis	milliseconds the search may take
+	 */
+	public SearchDeadline(long millis) {
+		this.end = System.nanoTime() + millis * 1_000_000;
+		this.expired = false;
+	}
+
+	/**
+	 * Makes the deadline the one of the calling thread, so it can also be handed to the
+	 * threads searching part of the same query
+	 *
+	 * @param deadline	the deadline to use, or null to search without one
+	 * @return the previous deadline of the thread, to give back to {@link #exit(SearchDeadline)}
+	 */
+	public static SearchDeadline enter(SearchDeadline deadline) {
+		SearchDeadline previous = CURRENT.get();
+		CURRENT.set(deadline);
+		return previous;
+	}
+
+	/**
+	 * Runs a search on the calling thread under a deadline starting now, putting back the previous deadline afterwards
+	 *
+	 * @param millis	milliseconds the search may take, or 0 to search without a deadline
+	 * @param search	the search to run
+	 */
+	public static void run(long millis, Runnable search) {
+		SearchDeadline previous = enter(millis > 0 ? new SearchDeadline(millis) : null);
+		try {
+			search.run();
+		}
+		finally {
+			exit(previous);
+		}
+	}
+
+	/**
+	 * Puts back the deadline the calling thread had before {@link #enter(SearchDeadline)}
+	 *
+	 * @param previous	the deadline returned by enter
+	 */
+	public static void exit(SearchDeadline previous) {
+		if (previous == null) {
+			CURRENT.remove();
+		}
+		else {
+			CURRENT.set(previous);
+		}
+	}
+
+	/**
+	 * Returns the deadline of the calling thread
+	 *
+	 * @return the deadline, or null if the thread is not searching under one
+	 */
+	public static SearchDeadline current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Checks the clock to see if the search on the calling thread should stop. A search that
+	 * stops because of this is marked as cut short.
+	 *
+	 * @return true if the thread has a deadline and it has passed
+	 */
+	public static boolean expired() {
+		SearchDeadline deadline = CURRENT.get();
+		return deadline != null && deadline.check();
+	}
+
+	/**
+	 * Checks the clock only once every few steps of a tight loop
+	 *
+	 * @param step	number of steps taken so far
+	 * @return true if the clock was checked and the deadline has passed
+	 *
+	 * @see #expired()
+	 */
+	public static boolean expired(int step) {
+		return step % STEPS == 0 && expired();
+	}
+
+	/**
+	 * Checks to see if the search on the calling thread was cut short, without checking the clock
+	 *
+	 * @return true if a search under the deadline of the thread stopped early
+	 */
+	public static boolean truncated() {
+		SearchDeadline deadline = CURRENT.get();
+		return deadline != null && deadline.expired;
+	}
+
+	/**
+	 * Checks the clock and marks the deadline as passed
+	 *
+	 * @return true if the deadline has passed
+	 */
+	private boolean check() {
+		if (!expired && System.nanoTime() - end >= 0) {
+			expired = true;
+		}
+		return expired;
+	}
+
+	/**
+	 * Checks to see if a search under this deadline was cut short
+	 *
+	 * @return true if a search stopped early
+	 */
+	public boolean isExpired() {
+		return expired;
+	}
+}
@@ -0,0 +1,174 @@
+/**
+ * Options of the query builders and the search server other than the index and
+ * whether searches are exact. Every option starts out off, and each is set by
+ * name, so they cannot be passed in the wrong order.
+ *
+ * @author EricChen
+ */
+public class SearchOptions {
+
+	/** Cache of search results, or null if results are not cached */
+	private QueryCache cache;
+
+	/** Maximum number of results kept for each query, or 0 to keep every result */
+	private int limit;
+
+	/** Number of queries searched together, or 0 to search each query on its own */
+	private int batch;
+
+	/** Spiller that moves results out of memory as queries complete, or null to keep every result in memory */
+	private ResultSpiller spiller;
+
+	/** Milliseconds each query may search for, or 0 to search without a deadline */
+	private long deadline;
+
+	/** Metrics the timeouts are counted in, or null if they are not counted */
+	private WorkQueueMetrics metrics;
+
+	/**
+	 * Creates the options with every option off
+	 */
+	public SearchOptions() {
+		this.cache = null;
+		this.limit = 0;
+		this.batch = 0;
+		this.spiller = null;
+		this.deadline = 0;
+		this.metrics = null;
+	}
+
+	/**
+	 * Creates a copy of the options, so one option can be changed for a single search
+	 *
+	 * @param other the options to copy
+	 */
+	public SearchOptions(SearchOptions other) {
+		this.cache = other.cache;
+		this.limit = other.limit;
+		this.batch = other.batch;
+		this.spiller = other.spiller;
+		this.deadline = other.deadline;
+		this.metrics = other.metrics;
+	}
+
+	/**
+	 * Sets the cache of search results
+	 *
+	 * @param cache cache of search results, or null if results are not cached
+	 * @return these options
+	 */
+	public SearchOptions cache(QueryCache cache) {
+		this.cache = cache;
+		return this;
+	}
+
+	/**
+	 * Sets the number of results kept for each query
+	 *
+	 * @param limit maximum number of results kept for each query, or 0 to keep every result
+	 * @return these options
+	 */
+	public SearchOptions limit(int limit) {
+		this.limit = limit;
+		return this;
+	}
+
+	/**
+	 * Sets the number of queries searched together
+	 *
+	 * @param batch number of queries searched together, or 0 to search each query on its own
+	 * @return these options
+	 */
+	public SearchOptions batch(int batch) {
+		this.batch = batch;
+		return this;
+	}
+
+	/**
+	 * Sets the spiller of the results
+	 *
+	 * @param spiller spiller that moves results out of memory as queries complete, or null to keep every result in memory
+	 * @return these options
+	 */
+	public SearchOptions spiller(ResultSpiller spiller) {
+		this.spiller = spiller;
+		return this;
+	}
+
+	/**
+	 * Sets the time each query may search for
+	 *
+	 * @param deadline milliseconds each query may search for, or 0 to search without a deadline
+	 * @return these options
+	 */
+	public SearchOptions deadline(long deadline) {
+		this.deadline = deadline;
+		return this;
+	}
+
+	/**
+	 * Sets the metrics the timeouts are counted in. The multithreaded builder always
+	 * counts them in the metrics of its work queue instead.
+	 *
+	 * @param metrics metrics the timeouts are counted in, or null if they are not counted
+	 * @return these options
+	 */
+	public SearchOptions metrics(WorkQueueMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	/**
+	 * Returns the cache of search results
+	 *
+	 * @return the cache, or null if results are not cached
+	 */
+	public QueryCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Returns the number of results kept for each query
+	 *
+	 * @return the limit, or 0 to keep every result
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Returns the number of queries searched together
+	 *
+	 * @return the batch size, or 0 to search each query on its own
+	 */
+	public int getBatch() {
+		return batch;
+	}
+
+	/**
+	 * Returns the spiller of the results
+	 *
+	 * @return the spiller, or null to keep every result in memory
+	 */
+	public ResultSpiller getSpiller() {
+		return spiller;
+	}
+
+	/**
+	 * Returns the time each query may search for
+	 *
+	 * @return milliseconds each query may search for, or 0 to search without a deadline
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Returns the metrics the timeouts are counted in
+	 *
+	 * @return the metrics, or null if they are not counted
+	 */
+	public WorkQueueMetrics getMetrics() {
+		return metrics;
+	}
+}
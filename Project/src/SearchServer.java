@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long-running HTTP server that answers searches against an index built once,
+ * using the HTTP server built into the JDK. Requests are handled on the given
+ * executor, so searches run concurrently when it has several threads.
+ *
+ * <ul>
+ * <li>{@code GET /search?q=...} searches for each {@code q} parameter and
+ * responds with the same JSON object as the results file. Any query line
+ * accepted by the query builders can be used, and the optional
+ * {@code exact} and {@code limit} parameters override the server defaults.
+ * Queries that ran out of time are counted in the {@code X-Truncated} header.
+ * With {@code format=lines} the results are written one on each line as
+ * {@code query\tcount\tscore\tpath} with the scores at full precision, the
+ * format of {@link ResultSpiller#writeLines(java.util.Map, Writer)}, which
+ * the {@link ShardCoordinator} reads.</li>
+ * <li>{@code GET /stats} responds with the number of requests, the request
+ * rate, the number of truncated queries, and the latency percentiles of the
+ * searches.</li>
+ * </ul>
+ *
+ * @author EricChen
+ */
+public class SearchServer {
+
+	/** Default port to listen on */
+	public static final int DEFAULT_PORT = 8080;
+
+	/** Start of the line printed once the server is answering, followed by its port */
+	public static final String READY = "Serving searches on port ";
+
+	/** Value of the format parameter asking for one result on each line instead of JSON */
+	public static final String LINES = "lines";
+
+	/** Content type of the results written one on each line */
+	private static final String LINES_TYPE = "text/tab-separated-values; charset=utf-8";
+
+	/** Content type of the JSON responses */
+	private static final String JSON_TYPE = "application/json; charset=utf-8";
+
+	/** Inverted index to search, which must be safe to search from several threads */
+	private final InvertedIndex index;
+
+	/** Whether to perform exact searches when a request does not say */
+	private final boolean exact;
+
+	/** Options of the searches, whose limit is used when a request does not say */
+	private final SearchOptions options;
+
+	/** The HTTP server */
+	private final HttpServer server;
+
+	/** Latency of the search requests */
+	private final LatencyHistogram latency;
+
+	/** Number of requests answered, including failed ones */
+	private final AtomicLong requests;
+
+	/** Number of requests that failed */
+	private final AtomicLong errors;
+
+	/** Number of queries that ran out of time and answered with the results found so far */
+	private final AtomicLong timeouts;
+
+	/** Time the server started in nanoseconds */
+	private volatile long started;
+
+	/** Released when the server stops */
+	private final CountDownLatch stopped;
+
+	/**
+	 * Creates the server without starting it
+	 *
+	 * @param index inverted index to search, which must be safe to search from several threads
+	 * @param port port to listen on
+	 * @param executor executor that handles the requests
+	 * @param exact whether to perform exact searches when a request does not say
+	 * @param options options of the searches, of which the batch size and result spiller are not used
+	 * @throws IOException if unable to listen on the port
+	 */
+	public SearchServer(InvertedIndex index, int port, Executor executor, boolean exact, SearchOptions options) throws IOException {
+		this.index = index;
+		this.exact = exact;
+		this.options = new SearchOptions(options).batch(0).spiller(null);
+		this.latency = new LatencyHistogram();
+		this.requests = new AtomicLong();
+		this.errors = new AtomicLong();
+		this.timeouts = new AtomicLong();
+		this.stopped = new CountDownLatch(1);
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		this.server.createContext("/search", this::search);
+		this.server.createContext("/stats", this::stats);
+		this.server.setExecutor(executor);
+	}
+
+	/**
+	 * Starts answering requests in the background
+	 */
+	public void start() {
+		started = System.nanoTime();
+		server.start();
+	}
+
+	/**
+	 * Stops the server, waiting up to the given number of seconds for requests being answered
+	 *
+	 * @param delay seconds to wait for requests being answered
+	 */
+	public void stop(int delay) {
+		server.stop(delay);
+		stopped.countDown();
+	}
+
+	/**
+	 * Waits until the server is stopped
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void join() throws InterruptedException {
+		stopped.await();
+	}
+
+	/**
+	 * Returns the port the server listens on
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Answers a search request
+	 *
+	 * @param exchange the request and response
+	 * @throws IOException if unable to send the response
+	 */
+	private void search(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				respond(exchange, 405, "{\n\t\"error\": \"Only GET is supported\"\n}");
+				return;
+			}
+
+			List<String> queries = new ArrayList<>();
+			boolean exact = this.exact;
+			int limit = options.getLimit();
+			boolean lines = false;
+			String raw = exchange.getRequestURI().getRawQuery();
+			for (String pair : raw == null ? new String[0] : raw.split("&")) {
+				int equals = pair.indexOf('=');
+				String key = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+				String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+				switch (key) {
+				case "q":
+					queries.add(value);
+					break;
+				case "exact":
+					exact = value.isEmpty() || Boolean.parseBoolean(value);
+					break;
+				case "limit":
+					try {
+						limit = Math.max(0, Integer.parseInt(value));
+					}
+					catch (NumberFormatException e) {
+						respond(exchange, 400, "{\n\t\"error\": \"Value of limit is not an integer\"\n}");
+						return;
+					}
+					break;
+				case "format":
+					lines = LINES.equals(value);
+					break;
+				default:
+					break;
+				}
+			}
+			if (queries.isEmpty()) {
+				respond(exchange, 400, "{\n\t\"error\": \"Missing the q parameter\"\n}");
+				return;
+			}
+
+			QueryBuilder builder = new QueryBuilder(index, exact, new SearchOptions(options).limit(limit));
+			for (String query : queries) {
+				builder.queryStem(query, exact);
+			}
+			StringWriter body = new StringWriter();
+			if (lines) {
+				builder.queryLines(body);
+			}
+			else {
+				builder.queryJson(body);
+			}
+			int truncated = builder.getTruncated().size();
+			timeouts.addAndGet(truncated);
+			exchange.getResponseHeaders().set("X-Truncated", Integer.toString(truncated));
+			respond(exchange, 200, body.toString(), lines ? LINES_TYPE : JSON_TYPE);
+		}
+		catch (RuntimeException e) {
+			respond(exchange, 500, "{\n\t\"error\": \"Unable to search\"\n}");
+			System.err.printf("Unable to answer %s due to error: %s%n", exchange.getRequestURI(), e.toString());
+		}
+		finally {
+			latency.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Answers a request for the request rate and latency of the searches
+	 *
+	 * @param exchange the request and response
+	 * @throws IOException if unable to send the response
+	 */
+	private void stats(HttpExchange exchange) throws IOException {
+		StringWriter body = new StringWriter();
+		writeJson(body);
+		respond(exchange, 200, body.toString());
+	}
+
+	/**
+	 * Sends a JSON response and counts the request
+	 *
+	 * @param exchange the request and response
+	 * @param status HTTP status code
+	 * @param body JSON body of the response
+	 * @throws IOException if unable to send the response
+	 */
+	private void respond(HttpExchange exchange, int status, String body) throws IOException {
+		respond(exchange, status, body, JSON_TYPE);
+	}
+
+	/**
+	 * Sends a response of the given content type and counts the request
+	 *
+	 * @param exchange the request and response
+	 * @param status HTTP status code
+	 * @param body body of the response
+	 * @param type content type of the body
+	 * @throws IOException if unable to send the response
+	 */
+	private void respond(HttpExchange exchange, int status, String body, String type) throws IOException {
+		requests.incrementAndGet();
+		if (status >= 400) {
+			errors.incrementAndGet();
+		}
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Returns the average number of requests answered each second since the server started
+	 *
+	 * @return requests per second
+	 */
+	public double getRate() {
+		double seconds = (System.nanoTime() - started) / 1e9;
+		return seconds > 0 ? requests.get() / seconds : 0;
+	}
+
+	/**
+	 * Writes the request counts, rate, and search latency as a pretty JSON object
+	 *
+	 * @param writer the writer to use
+	 * @throws IOException if unable to write
+	 */
+	public void writeJson(Writer writer) throws IOException {
+		writer.write("{\n");
+		writer.write(String.format("\t\"uptime\": %.3f,\n", (System.nanoTime() - started) / 1e9));
+		writer.write(String.format("\t\"requests\": %d,\n", requests.get()));
+		writer.write(String.format("\t\"errors\": %d,\n", errors.get()));
+		writer.write(String.format("\t\"timeouts\": %d,\n", timeouts.get()));
+		WorkQueueMetrics.writeHistogram("latency", latency, writer);
+		writer.write(String.format("\t\"rate\": %.4f\n", getRate()));
+		writer.write("}");
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Search server: %d requests (%d errors, %d timeouts), %.1f requests per second, latency %s",
+				requests.get(), errors.get(), timeouts.get(), getRate(), latency);
+	}
+
+}
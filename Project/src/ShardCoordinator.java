@@ -0,0 +1,162 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Searches an index split across several shards, each answering searches for its
+ * part of the documents through a {@link SearchServer}. Every query line is sent
+ * to all of the shards at once, and the sorted results of each shard are merged
+ * into one ranking in the order of {@link InvertedIndex.SearchResult#compareTo}.
+ * The shards answer with one result on each line and the scores at full
+ * precision, so the merged ranking breaks ties the same way a single index would.
+ * A shard that fails or does not answer within the timeout is left out, so the
+ * query is answered with the results of the other shards and counted as partial.
+ *
+ * @author EricChen
+ */
+public class ShardCoordinator implements QueryBuilderInterface {
+
+	/** Default time to wait for a shard to answer a query */
+	public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+
+	/** Addresses of the search servers of the shards */
+	private final List<URI> shards;
+
+	/** Client used to send the queries */
+	private final HttpClient client;
+
+	/** Time to wait for a shard to answer a query */
+	private final Duration timeout;
+
+	/** Maximum number of results kept for each query, or 0 to keep every result */
+	private final int limit;
+
+	/** Empty index the merged results belong to */
+	private final InvertedIndex owner;
+
+	/** Merged results of each query */
+	private final TreeMap<String, List<InvertedIndex.SearchResult>> results;
+
+	/** Number of queries sent to the shards */
+	private int queries;
+
+	/** Number of queries answered by only some of the shards */
+	private int partial;
+
+	/** Number of times a shard failed to answer a query */
+	private int failures;
+
+	/**
+	 * Constructor for the coordinator
+	 *
+	 * @param shards	addresses of the search servers of the shards
+	 * @param timeout	time to wait for a shard to answer a query
+	 * @param limit	maximum number of results kept for each query, or 0 to keep every result
+	 */
+	public ShardCoordinator(List<URI> shards, Duration timeout, int limit) {
+		this.shards = new ArrayList<>(shards);
+		this.timeout = timeout;
+		this.limit = limit;
+		this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+		this.owner = new InvertedIndex();
+		this.results = new TreeMap<>();
+		this.queries = 0;
+		this.partial = 0;
+		this.failures = 0;
+	}
+
+	@Override
+	public void queryStem(String line, boolean exact) {
+		if (line.isBlank()) {
+			return;
+		}
+		queries++;
+
+		String parameters = "/search?q=" + URLEncoder.encode(line, StandardCharsets.UTF_8) + "&exact=" + exact + "&limit=" + limit
+				+ "&format=" + SearchServer.LINES;
+		List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+		for (URI shard : shards) {
+			HttpRequest request = HttpRequest.newBuilder(URI.create(shard + parameters)).timeout(timeout).GET().build();
+			responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+		}
+
+		TreeMap<String, List<InvertedIndex.SearchResult>> merged = new TreeMap<>();
+		int answered = 0;
+		for (int i = 0; i < responses.size(); i++) {
+			try {
+				HttpResponse<String> response = responses.get(i).join();
+				if (response.statusCode() != 200) {
+					throw new IOException("status " + response.statusCode());
+				}
+				TreeMap<String, List<InvertedIndex.SearchResult>> answer;
+				try (BufferedReader reader = new BufferedReader(new StringReader(response.body()))) {
+					answer = ResultSpiller.readLines(reader, owner);
+				}
+				for (Map.Entry<String, List<InvertedIndex.SearchResult>> entry : answer.entrySet()) {
+					merged.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).addAll(entry.getValue());
+				}
+				answered++;
+			}
+			catch (CompletionException | IOException e) {
+				failures++;
+				System.err.printf("Shard %s did not answer %s due to error: %s%n", shards.get(i), line,
+						e instanceof CompletionException ? e.getCause().toString() : e.getMessage());
+			}
+		}
+		if (answered < shards.size()) {
+			partial++;
+			System.err.printf("Answered %s with %d of %d shards.%n", line, answered, shards.size());
+		}
+
+		for (Map.Entry<String, List<InvertedIndex.SearchResult>> entry : merged.entrySet()) {
+			if (!results.containsKey(entry.getKey())) {
+				List<InvertedIndex.SearchResult> ranked = entry.getValue();
+				Collections.sort(ranked);
+				if (limit > 0 && ranked.size() > limit) {
+					ranked = new ArrayList<>(ranked.subList(0, limit));
+				}
+				results.put(entry.getKey(), ranked);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of queries answered by only some of the shards
+	 *
+	 * @return number of partial queries
+	 */
+	public int getPartial() {
+		return partial;
+	}
+
+	@Override
+	public void clear() {
+		results.clear();
+	}
+
+	@Override
+	public void queryJson(Path path) throws IOException {
+		SimpleJsonWriter.asQueryObject(results, path);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Shard coordinator: %d queries across %d shards, %d partial, %d shard failures",
+				queries, shards.size(), partial, failures);
+	}
+}
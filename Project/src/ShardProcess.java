@@ -0,0 +1,113 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shard of the index running in its own JVM on this machine. The process runs
+ * the driver with the given arguments, builds its part of the index, and then
+ * prints a line telling the coordinator it is ready, such as the port its
+ * search server picked with {@code -serve 0} or the segment it wrote with
+ * {@code -segment}. The rest of its output is copied to this process.
+ *
+ * @author EricChen
+ */
+public class ShardProcess {
+
+	/** Number of the shard, used to label its output */
+	private final int shard;
+
+	/** The running process */
+	private final Process process;
+
+	/** Output of the process, read until the server has started */
+	private final BufferedReader output;
+
+	/** Rest of the line the shard printed when it was ready, or null until then */
+	private String ready;
+
+	/**
+	 * Starts the process without waiting for it to build its part of the index
+	 *
+	 * @param shard	number of the shard, used to label its output
+	 * @param arguments	driver arguments of the shard
+	 * @throws IOException	if unable to start the process
+	 */
+	public ShardProcess(int shard, List<String> arguments) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Driver.class.getName());
+		command.addAll(arguments);
+
+		this.shard = shard;
+		this.process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		this.output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Waits for the shard to print the line starting with the prefix, then keeps copying
+	 * the rest of its output in the background so the process never blocks on it
+	 *
+	 * @param prefix	start of the line the shard prints once it is ready
+	 * @return the rest of the line after the prefix
+	 * @throws IOException	if the process exits or stops writing before it is ready
+	 */
+	public String await(String prefix) throws IOException {
+		String line;
+		while ((line = output.readLine()) != null) {
+			if (line.startsWith(prefix)) {
+				ready = line.substring(prefix.length()).trim();
+				break;
+			}
+			System.out.printf("[shard %d] %s%n", shard, line);
+		}
+		if (ready == null) {
+			throw new IOException("Shard " + shard + " exited before it was ready");
+		}
+
+		Thread copier = new Thread(() -> {
+			try {
+				String rest;
+				while ((rest = output.readLine()) != null) {
+					System.out.printf("[shard %d] %s%n", shard, rest);
+				}
+			}
+			catch (IOException e) {
+				// the process has exited
+			}
+		}, "shard-" + shard);
+		copier.setDaemon(true);
+		copier.start();
+		return ready;
+	}
+
+	/**
+	 * Asks the shard to stop without waiting for it to exit, so several shards can stop at once
+	 */
+	public void stop() {
+		process.destroy();
+	}
+
+	/**
+	 * Waits for the shard to exit, stopping it forcibly if interrupted while waiting
+	 */
+	public void join() {
+		try {
+			process.waitFor();
+		}
+		catch (InterruptedException e) {
+			process.destroyForcibly();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Shard %d: %s", shard, ready == null ? "starting" : ready);
+	}
+}
@@ -6,7 +6,6 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -255,7 +254,8 @@ public class SimpleJsonWriter {
 	}
 
 	/**
-	 * Writes the elements as a query pretty JSON object.
+	 * Writes the elements as a query pretty JSON object. The search results of each
+	 * query are written in the order given, which the searches already sort.
 	 *
 	 * @param elements	the elements to write
 	 * @param writer	the path to the file
@@ -270,7 +270,6 @@ public class SimpleJsonWriter {
 			String key = iterator.next().toString();
 			quote(key, writer, level + 1);
 			writer.write(": [");
-			Collections.sort(elements.get(key));
 			writeArrayList(elements.get(key), writer, level);
 			writer.write("\t]");
 		}
@@ -279,7 +278,6 @@ public class SimpleJsonWriter {
 			String key = iterator.next().toString();
 			quote(key, writer, level + 1);
 			writer.write(": [");
-			Collections.sort(elements.get(key));
 			writeArrayList(elements.get(key), writer, level);
 			writer.write("\t]");
 		}
@@ -312,30 +310,34 @@ public class SimpleJsonWriter {
 	 * @throws IOException	if unable to read or parse the file
 	 */
 	public static void writeArrayList(List<InvertedIndex.SearchResult> elements, Writer writer, int level) throws IOException {
-		if(!elements.isEmpty()) {
-			for(int i = 0 ; i < elements.size() - 1; i++) {
-				Integer count = elements.get(i).getCount();
-				Double score = elements.get(i).getScore();
-
-				writer.write("\n\t\t{\n");
-				writer.write("\t\t\t\"where\": \"" + elements.get(i).getPath() + "\",\n");
-				writer.write("\t\t\t\"count\": " + count.toString() + ",\n");
-				writer.write("\t\t\t\"score\": " + 	String.format("%.8f", score));
-				writer.write("\n\t\t},");
+		for(int i = 0 ; i < elements.size(); i++) {
+			InvertedIndex.SearchResult element = elements.get(i);
+			writeResult(element.getPath(), element.getCount(), element.getScore(), writer);
+			if(i < elements.size() - 1) {
+				writer.write(",");
 			}
-			Integer count = elements.get(elements.size() - 1).getCount();
-			Double score = elements.get(elements.size() - 1).getScore();
-
-			writer.write("\n\t\t{\n");
-			writer.write("\t\t\t\"where\": \"" + elements.get(elements.size() - 1).getPath() + "\",\n");
-			writer.write("\t\t\t\"count\": " + count.toString() + ",\n");
-			writer.write("\t\t\t\"score\": " + 	String.format("%.8f", score));
-			writer.write("\n\t\t}");
 		}
 		writer.write("\n");
 
 	}
 
+	/**
+	 * Writes a single search result the same way as {@link #writeArrayList(List, Writer, int)}
+	 *
+	 * @param where	the path of the result
+	 * @param count	the number of matches
+	 * @param score	the score of the result
+	 * @param writer	the writer to use
+	 * @throws IOException	if unable to write the result
+	 */
+	public static void writeResult(String where, int count, double score, Writer writer) throws IOException {
+		writer.write("\n\t\t{\n");
+		writer.write("\t\t\t\"where\": \"" + where + "\",\n");
+		writer.write("\t\t\t\"count\": " + count + ",\n");
+		writer.write("\t\t\t\"score\": " + String.format("%.8f", score));
+		writer.write("\n\t\t}");
+	}
+
 	/**
 	 * Writes the {@code \t} tab symbol by the number of times specified.
 	 *
@@ -383,16 +385,27 @@ public class SimpleJsonWriter {
 	}
 
 	/**
-	 * Writes the element surrounded by {@code " "} quotation marks.
+	 * Writes the element surrounded by {@code " "} quotation marks, escaping the
+	 * quotation marks and backslashes in it.
 	 *
 	 * @param element the element to write
 	 * @param writer  the writer to use
 	 * @throws IOException
 	 */
 	public static void quote(String element, Writer writer) throws IOException {
-		// THIS CODE IS PROVIDED FOR YOU; DO NOT MODIFY
 		writer.write('"');
-		writer.write(element);
+		if (element.indexOf('"') < 0 && element.indexOf('\\') < 0) {
+			writer.write(element);
+		}
+		else {
+			for (int i = 0; i < element.length(); i++) {
+				char c = element.charAt(i);
+				if (c == '"' || c == '\\') {
+					writer.write('\\');
+				}
+				writer.write(c);
+			}
+		}
 		writer.write('"');
 	}
 
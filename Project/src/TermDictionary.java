@@ -0,0 +1,381 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Read-only snapshot of the words in an inverted index, sorted and numbered by
+ * their position. Every word sharing a prefix gets a contiguous range of
+ * numbers, so a partial search scans a range of the arrays instead of walking
+ * the index map and checking each key. The running number of documents lets
+ * the size of a range be found without visiting it.
+ *
+ * Documents are numbered the same way by their sorted paths, and the postings
+ * of each word are stored as arrays of document numbers and match counts so
+ * searches can add up scores in arrays instead of maps keyed by path. The
+ * weights of the postings under a {@link ScoringModel} are computed once, along
+ * with the largest weight of each word, the first time the model is used.
+ *
+ * @author EricChen
+ */
+public class TermDictionary {
+
+	/** Words of the index in sorted order */
+	private final String[] terms;
+
+	/** Document numbers containing each word, in the same order as the words */
+	private final int[][] docs;
+
+	/** Number of times each word appears in each of its documents */
+	private final int[][] freqs;
+
+	/** Number of documents containing the words before each word, with the total at the end */
+	private final long[] documents;
+
+	/** Paths of the documents in sorted order */
+	private final String[] paths;
+
+	/** Word count of each document, in the same order as the paths */
+	private final int[] lengths;
+
+	/** Average word count of the documents */
+	private final double averageLength;
+
+	/** Weights of the postings under the last scoring model used, or null if none was used */
+	private Impacts impacts;
+
+	/**
+	 * Builds the dictionary from the words and word counts of an inverted index
+	 *
+	 * @param index word mapped to file path mapped to positions
+	 * @param locations file path mapped to word count
+	 */
+	public TermDictionary(TreeMap<String, TreeMap<String, TreeSet<Integer>>> index, TreeMap<String, Integer> locations) {
+		this.paths = new String[locations.size()];
+		this.lengths = new int[locations.size()];
+		Map<String, Integer> ids = new HashMap<>();
+
+		int doc = 0;
+		long words = 0;
+		for (Map.Entry<String, Integer> entry : locations.entrySet()) {
+			paths[doc] = entry.getKey();
+			lengths[doc] = entry.getValue();
+			ids.put(entry.getKey(), doc);
+			words += entry.getValue();
+			doc++;
+		}
+		this.averageLength = doc == 0 ? 1 : Math.max(1, words * 1.0 / doc);
+
+		this.terms = new String[index.size()];
+		this.docs = new int[index.size()][];
+		this.freqs = new int[index.size()][];
+		this.documents = new long[index.size() + 1];
+
+		int i = 0;
+		for (Map.Entry<String, TreeMap<String, TreeSet<Integer>>> entry : index.entrySet()) {
+			terms[i] = entry.getKey();
+			docs[i] = new int[entry.getValue().size()];
+			freqs[i] = new int[entry.getValue().size()];
+			int j = 0;
+			for (Map.Entry<String, TreeSet<Integer>> posting : entry.getValue().entrySet()) {
+				docs[i][j] = ids.get(posting.getKey());
+				freqs[i][j] = posting.getValue().size();
+				j++;
+			}
+			documents[i + 1] = documents[i] + docs[i].length;
+			i++;
+		}
+	}
+
+	/**
+	 * Returns the number of words in the dictionary
+	 *
+	 * @return number of words
+	 */
+	public int size() {
+		return terms.length;
+	}
+
+	/**
+	 * Returns the number of the word
+	 *
+	 * @param term the word to find
+	 * @return number of the word, or -1 if it is not in the dictionary
+	 */
+	public int find(String term) {
+		int start = start(term);
+		return start < terms.length && terms[start].equals(term) ? start : -1;
+	}
+
+	/**
+	 * Returns the number of the first word that is not less than the prefix, which is
+	 * the first word starting with the prefix if there is one
+	 *
+	 * @param prefix the prefix to look up
+	 * @return start of the range of words starting with the prefix
+	 */
+	public int start(String prefix) {
+		int low = 0;
+		int high = terms.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (terms[middle].compareTo(prefix) < 0) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the number after the last word starting with the prefix
+	 *
+	 * @param prefix the prefix to look up
+	 * @return end of the range of words starting with the prefix, exclusive
+	 */
+	public int end(String prefix) {
+		return end(prefix, start(prefix));
+	}
+
+	/**
+	 * Returns the number after the last word starting with the prefix, searching from a
+	 * word known not to come after the first word starting with the prefix
+	 *
+	 * @param prefix the prefix to look up
+	 * @param low number of a word at or before the range of words starting with the prefix
+	 * @return end of the range of words starting with the prefix, exclusive
+	 */
+	private int end(String prefix, int low) {
+		int high = terms.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (terms[middle].startsWith(prefix)) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the numbers of the words within the number of edits of the word. The sorted
+	 * words are walked as a trie: the automaton state of each prefix is kept and shared with
+	 * the next word starting with it, and once a prefix cannot lead to a match every word
+	 * starting with it is skipped with a binary search.
+	 *
+	 * @param word the word to match
+	 * @param distance number of insertions, deletions, and substitutions allowed
+	 * @return numbers of the matching words in sorted order
+	 */
+	public int[] findSimilar(String word, int distance) {
+		LevenshteinAutomaton automaton = new LevenshteinAutomaton(word, distance);
+		int[][] states = new int[word.length() + automaton.getDistance() + 2][word.length() + 1];
+		states[0] = automaton.start();
+		int[] found = new int[16];
+		int size = 0;
+		String previous = "";
+		int valid = 0;
+		int id = 0;
+		int steps = 0;
+
+		while (id < terms.length && !SearchDeadline.expired(++steps)) {
+			String term = terms[id];
+			int depth = 0;
+			int shared = Math.min(valid, Math.min(previous.length(), term.length()));
+			while (depth < shared && previous.charAt(depth) == term.charAt(depth)) {
+				depth++;
+			}
+
+			boolean dead = false;
+			while (depth < term.length()) {
+				if (depth + 1 >= states.length) {
+					dead = true;
+					break;
+				}
+				int fewest = automaton.step(states[depth], term.charAt(depth), states[depth + 1]);
+				depth++;
+				if (fewest > automaton.getDistance()) {
+					dead = true;
+					break;
+				}
+			}
+
+			previous = term;
+			valid = depth;
+			if (dead) {
+				id = end(term.substring(0, depth), id);
+				continue;
+			}
+			if (automaton.isMatch(states[depth])) {
+				if (size == found.length) {
+					found = Arrays.copyOf(found, size * 2);
+				}
+				found[size++] = id;
+			}
+			id++;
+		}
+		return Arrays.copyOf(found, size);
+	}
+
+	/**
+	 * Returns the word with the number
+	 *
+	 * @param id number of the word
+	 * @return the word
+	 */
+	public String getTerm(int id) {
+		return terms[id];
+	}
+
+	/**
+	 * Returns the numbers of the documents containing the word, in path order
+	 *
+	 * @param id number of the word
+	 * @return document numbers of the word, which must not be modified
+	 */
+	public int[] getDocs(int id) {
+		return docs[id];
+	}
+
+	/**
+	 * Returns the number of times the word appears in each of its documents
+	 *
+	 * @param id number of the word
+	 * @return match counts in the same order as {@link #getDocs(int)}, which must not be modified
+	 */
+	public int[] getFreqs(int id) {
+		return freqs[id];
+	}
+
+	/**
+	 * Returns the total number of documents listed by the words in a range, counting a
+	 * document once for each word it contains
+	 *
+	 * @param start number of the first word
+	 * @param end number after the last word
+	 * @return number of postings in the range
+	 */
+	public long getDocuments(int start, int end) {
+		return documents[end] - documents[start];
+	}
+
+	/**
+	 * Returns the number of documents in the dictionary
+	 *
+	 * @return number of documents
+	 */
+	public int getDocumentCount() {
+		return paths.length;
+	}
+
+	/**
+	 * Returns the number of the document
+	 *
+	 * @param path path of the document
+	 * @return number of the document, or a negative number if it is not in the dictionary
+	 */
+	public int findDocument(String path) {
+		return Arrays.binarySearch(paths, path);
+	}
+
+	/**
+	 * Returns the path of the document with the number
+	 *
+	 * @param doc number of the document
+	 * @return path of the document
+	 */
+	public String getPath(int doc) {
+		return paths[doc];
+	}
+
+	/**
+	 * Returns the word count of the document with the number
+	 *
+	 * @param doc number of the document
+	 * @return word count of the document
+	 */
+	public int getLength(int doc) {
+		return lengths[doc];
+	}
+
+	/**
+	 * Returns the average word count of the documents
+	 *
+	 * @return average word count
+	 */
+	public double getAverageLength() {
+		return averageLength;
+	}
+
+	/**
+	 * Returns the weights of the postings under the scoring model, computing them if the
+	 * model was not the last one used
+	 *
+	 * @param model the scoring model
+	 * @return weights of the postings under the model
+	 */
+	public synchronized Impacts getImpacts(ScoringModel model) {
+		if (impacts == null || impacts.model != model) {
+			impacts = new Impacts(model);
+		}
+		return impacts;
+	}
+
+	/**
+	 * Weights of every posting under one scoring model, and the largest weight of each word
+	 */
+	public class Impacts {
+
+		/** Scoring model the weights were computed with */
+		private final ScoringModel model;
+
+		/** Weight of each posting, in the same order as {@link TermDictionary#getDocs(int)} */
+		private final double[][] weights;
+
+		/** Largest weight of each word */
+		private final double[] max;
+
+		/**
+		 * Computes the weights of every posting
+		 *
+		 * @param model the scoring model
+		 */
+		private Impacts(ScoringModel model) {
+			this.model = model;
+			this.weights = new double[terms.length][];
+			this.max = new double[terms.length];
+			for (int id = 0; id < terms.length; id++) {
+				weights[id] = new double[docs[id].length];
+				for (int i = 0; i < docs[id].length; i++) {
+					weights[id][i] = model.weight(freqs[id][i], lengths[docs[id][i]], docs[id].length, paths.length, averageLength);
+					max[id] = Math.max(max[id], weights[id][i]);
+				}
+			}
+		}
+
+		/**
+		 * Returns the weight of each posting of the word
+		 *
+		 * @param id number of the word
+		 * @return weights in the same order as {@link TermDictionary#getDocs(int)}, which must not be modified
+		 */
+		public double[] get(int id) {
+			return weights[id];
+		}
+
+		/**
+		 * Returns the largest weight the word gives any document
+		 *
+		 * @param id number of the word
+		 * @return largest weight of the word
+		 */
+		public double getMax(int id) {
+			return max[id];
+		}
+	}
+}
@@ -0,0 +1,172 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Adjusts the number of threads used by a {@link WorkQueue} while it runs
+ * using hill climbing. Every period it measures task throughput, process CPU
+ * load, and how much of the time workers spent running tasks was spent off the
+ * CPU waiting on I/O or locks. It then moves the pool size one thread in the
+ * direction that last improved throughput, reversing when throughput drops.
+ * When throughput is flat, it grows the pool for work that mostly waits and
+ * shrinks it for work that keeps the CPU busy.
+ *
+ * Every change is logged so the chosen size can be pinned with {@code -threads}.
+ *
+ * @author EricChen
+ */
+public class ThreadController {
+
+	/** Default milliseconds between adjustments */
+	public static final long DEFAULT_PERIOD = 500;
+
+	/** Relative change in throughput that counts as better or worse rather than flat */
+	private static final double TOLERANCE = 0.05;
+
+	/** Fraction of busy time spent off the CPU above which work is treated as waiting on I/O */
+	private static final double WAITING = 0.5;
+
+	/** Process CPU load above which the pool is not grown unless the work is waiting */
+	private static final double SATURATED = 0.95;
+
+	/** Work queue being resized */
+	private final WorkQueue workQueue;
+
+	/** Milliseconds between adjustments */
+	private final long period;
+
+	/** Timer running the adjustments, or null if stopped */
+	private Timer timer;
+
+	/** Direction of the last step, either 1 or -1 */
+	private int direction;
+
+	/** Throughput measured during the last period in tasks per second, or -1 before the first */
+	private double throughput;
+
+	/** Time of the last measurement in nanoseconds */
+	private long time;
+
+	/** Completed tasks at the last measurement */
+	private long completed;
+
+	/** Busy time of the workers at the last measurement in nanoseconds */
+	private long busy;
+
+	/** CPU time of the workers at the last measurement in nanoseconds */
+	private long cpu;
+
+	/**
+	 * Constructor for the controller
+	 *
+	 * @param workQueue work queue to resize, created with room to grow
+	 * @param period milliseconds between adjustments
+	 *
+	 * @see WorkQueue#WorkQueue(int, int)
+	 */
+	public ThreadController(WorkQueue workQueue, long period) {
+		this.workQueue = workQueue;
+		this.period = period;
+		this.direction = 1;
+		this.throughput = -1;
+	}
+
+	/**
+	 * Starts adjusting the size of the work queue in the background, timing its
+	 * work requests since the busy time of the workers is needed
+	 */
+	public synchronized void start() {
+		if (timer != null) {
+			return;
+		}
+		workQueue.getMetrics().enable();
+		time = System.nanoTime();
+		completed = workQueue.getMetrics().getCompleted();
+		busy = workQueue.getMetrics().getBusyTime();
+		cpu = workQueue.getCpuTime();
+
+		System.out.printf("Threads: starting with %d of at most %d%n", workQueue.size(), workQueue.capacity());
+		timer = new Timer("ThreadController", true);
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				adjust();
+			}
+		}, period, period);
+	}
+
+	/**
+	 * Stops adjusting the size of the work queue and logs the final size
+	 */
+	public synchronized void stop() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+			System.out.printf("Threads: settled on %d; use -threads %d to repeat this run%n", workQueue.size(), workQueue.size());
+		}
+	}
+
+	/**
+	 * Measures the last period and moves the pool size by one thread
+	 */
+	private synchronized void adjust() {
+		WorkQueueMetrics metrics = workQueue.getMetrics();
+		long nowTime = System.nanoTime();
+		long nowCompleted = metrics.getCompleted();
+		long nowBusy = metrics.getBusyTime();
+		long nowCpu = workQueue.getCpuTime();
+
+		long elapsed = nowTime - time;
+		long done = nowCompleted - completed;
+		long busyDelta = nowBusy - busy;
+		long cpuDelta = nowCpu - cpu;
+
+		time = nowTime;
+		completed = nowCompleted;
+		busy = nowBusy;
+		cpu = nowCpu;
+
+		// nothing to learn while the pool has no work
+		if (elapsed <= 0 || (done == 0 && metrics.getQueueDepth() == 0)) {
+			return;
+		}
+
+		double current = done * 1e9 / elapsed;
+		double waiting = nowCpu < 0 || busyDelta <= 0 ? 0 : Math.max(0, 1 - (double) cpuDelta / busyDelta);
+		double load = getProcessCpuLoad();
+
+		if (throughput >= 0 && current < throughput * (1 - TOLERANCE)) {
+			direction = -direction;
+		}
+		else if (throughput < 0 || current <= throughput * (1 + TOLERANCE)) {
+			direction = waiting > WAITING ? 1 : -1;
+		}
+		throughput = current;
+
+		if (direction > 0 && (metrics.getQueueDepth() == 0 || (load > SATURATED && waiting <= WAITING))) {
+			return;
+		}
+
+		int size = workQueue.size();
+		int target = Math.max(1, Math.min(workQueue.capacity(), size + direction));
+		if (target != size) {
+			workQueue.resize(target);
+			System.out.printf("Threads: %d -> %d (%.1f tasks/s, cpu %.0f%%, waiting %.0f%%)%n",
+					size, target, current, load * 100, waiting * 100);
+		}
+	}
+
+	/**
+	 * Returns the recent CPU load of this process across all processors
+	 *
+	 * @return CPU load between 0 and 1, or 0 if it cannot be measured
+	 */
+	private static double getProcessCpuLoad() {
+		OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+		if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+			return Math.max(0, ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuLoad());
+		}
+		return 0;
+	}
+}
@@ -1,9 +1,15 @@
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Class to create thread safe inverted index
@@ -11,12 +17,36 @@ import java.util.Set;
  */
 public class ThreadSafeInvertedIndex extends InvertedIndex {
 
+	/** Default number of postings a partial search must expand to before it is split across the work queue */
+	public static final long DEFAULT_PARALLEL_THRESHOLD = 100000;
+
+	/** Number of chunks given to each thread of the work queue when a partial search is split */
+	private static final int CHUNKS_PER_THREAD = 2;
+
 	/** Lock to be used for synchronization */
 	private final SimpleReadWriteLock lock;
 
+	/** Work queue used to split broad partial searches, or null to search on the calling thread */
+	private final WorkQueue workQueue;
+
+	/** Number of postings a partial search must expand to before it is split across the work queue */
+	private final long threshold;
+
 	/** Constructor for the thread safe inverted index */
 	public ThreadSafeInvertedIndex() {
+		this(null, DEFAULT_PARALLEL_THRESHOLD);
+	}
+
+	/**
+	 * Constructor for the thread safe inverted index that splits broad partial searches across a work queue
+	 *
+	 * @param workQueue	work queue used to split broad partial searches, or null to search on the calling thread
+	 * @param threshold	number of postings a partial search must expand to before it is split
+	 */
+	public ThreadSafeInvertedIndex(WorkQueue workQueue, long threshold) {
 		lock = new SimpleReadWriteLock();
+		this.workQueue = workQueue;
+		this.threshold = threshold;
 	}
 
 	@Override
@@ -42,10 +72,175 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	}
 
 	@Override
-	public List<SearchResult> exactSearch(Collection<String> queries){
+	public void addAll(String word, TreeMap<String, TreeSet<Integer>> postings) {
+		lock.writeLock().lock();
+		try {
+			super.addAll(word, postings);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void addListener(Listener listener) {
+		lock.writeLock().lock();
+		try {
+			super.addListener(listener);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void removeAll(Collection<String> paths) {
+		lock.writeLock().lock();
+		try {
+			super.removeAll(paths);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void update(Collection<String> paths, InvertedIndex otherIndex) {
+		lock.writeLock().lock();
+		try {
+			super.update(paths, otherIndex);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void setStopWords(Collection<String> words) {
+		lock.writeLock().lock();
+		try {
+			super.setStopWords(words);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public int capFrequency() {
+		lock.writeLock().lock();
+		try {
+			return super.capFrequency();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean isFrequent(int documents) {
+		lock.readLock().lock();
+		try {
+			return super.isFrequent(documents);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean isStopWord(String word) {
+		lock.readLock().lock();
+		try {
+			return super.isStopWord(word);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Set<String> getStopWords() {
+		lock.readLock().lock();
+		try {
+			return super.getStopWords();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public long numStopped() {
+		lock.readLock().lock();
+		try {
+			return super.numStopped();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<SearchResult> exactSearch(Collection<String> queries, int limit){
+		lock.readLock().lock();
+		try {
+			return super.exactSearch(queries, limit);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<SearchResult> partialSearch(Collection<String> queries, int limit){
+		lock.readLock().lock();
+		try {
+			return super.partialSearch(queries, limit);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<List<SearchResult>> batchSearch(List<? extends Collection<String>> queries, boolean exact, int limit, long deadline, BitSet truncated) {
+		lock.readLock().lock();
+		try {
+			return super.batchSearch(queries, exact, limit, deadline, truncated);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<SearchResult> phraseSearch(List<String> terms, int distance, int limit) {
+		lock.readLock().lock();
+		try {
+			return super.phraseSearch(terms, distance, limit);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<SearchResult> wildcardSearch(Collection<String> queries, boolean exact, int limit) {
+		lock.readLock().lock();
+		try {
+			return super.wildcardSearch(queries, exact, limit);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<SearchResult> fuzzySearch(Collection<String> queries, int distance, int limit) {
 		lock.readLock().lock();
 		try {
-			return super.exactSearch(queries);
+			return super.fuzzySearch(queries, distance, limit);
 		}
 		finally {
 			lock.readLock().unlock();
@@ -53,10 +248,10 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	}
 
 	@Override
-	public List<SearchResult> partialSearch(Collection<String> queries){
+	public List<SearchResult> booleanSearch(BooleanQuery query, boolean exact, int limit) {
 		lock.readLock().lock();
 		try {
-			return super.partialSearch(queries);
+			return super.booleanSearch(query, exact, limit);
 		}
 		finally {
 			lock.readLock().unlock();
@@ -140,6 +335,50 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		}
 	}
 
+	@Override
+	public long numPositions() {
+		lock.readLock().lock();
+		try {
+			return super.numPositions();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void spill(Path path) throws IOException {
+		lock.writeLock().lock();
+		try {
+			super.spill(path);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void indexGrams() {
+		lock.readLock().lock();
+		try {
+			super.indexGrams();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void writeGrams(Path path) throws IOException {
+		lock.readLock().lock();
+		try {
+			super.writeGrams(path);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public void writeIndex(Path path) throws IOException {
 		lock.readLock().lock();
@@ -161,4 +400,65 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 			lock.readLock().unlock();
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Adds up the matches in the ranges on the calling thread, unless they expand to more postings
+	 * than the threshold. Then the documents are cut into chunks of consecutive numbers that run on the
+	 * work queue, each adding up every word in the ranges for its own documents. The calling thread
+	 * runs any chunk no worker has started yet, so it never waits on work stuck behind it in the queue.
+	 * Each document is still added up word by word in the same order, so the scores match a search on
+	 * one thread. Only the read-only dictionary is used by the chunks, so they run without the lock the
+	 * calling thread already holds.
+	 */
+	@Override
+	protected ScoreAccumulator accumulate(TermDictionary terms, int[] ranges) {
+		long postings = 0;
+		for (int i = 0; i < ranges.length; i += 2) {
+			postings += terms.getDocuments(ranges[i], ranges[i + 1]);
+		}
+		if (workQueue == null || workQueue.size() < 2 || postings <= threshold) {
+			return super.accumulate(terms, ranges);
+		}
+
+		int documents = terms.getDocumentCount();
+		int size = documents / (workQueue.size() * CHUNKS_PER_THREAD) + 1;
+		SearchDeadline deadline = SearchDeadline.current();
+		List<FutureTask<ScoreAccumulator.Hits>> chunks = new ArrayList<>();
+		for (int first = 0; first < documents; first += size) {
+			int start = first;
+			int end = Math.min(documents, first + size);
+			FutureTask<ScoreAccumulator.Hits> future = new FutureTask<>(() -> {
+				SearchDeadline previous = SearchDeadline.enter(deadline);
+				try {
+					return accumulate(terms, ranges, start, end).drain();
+				}
+				finally {
+					SearchDeadline.exit(previous);
+				}
+			});
+			chunks.add(future);
+			workQueue.execute(future, WorkQueue.Priority.INTERACTIVE);
+		}
+
+		try {
+			List<ScoreAccumulator.Hits> results = new ArrayList<>(chunks.size());
+			for (FutureTask<ScoreAccumulator.Hits> chunk : chunks) {
+				chunk.run();
+				results.add(chunk.get());
+			}
+
+			ScoreAccumulator scores = ScoreAccumulator.get(documents);
+			for (ScoreAccumulator.Hits result : results) {
+				scores.addAll(result);
+			}
+			return scores;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e) {
+			System.err.printf("Unable to split the search due to error: %s", e.getCause().toString());
+		}
+		return super.accumulate(terms, ranges);
+	}
+}
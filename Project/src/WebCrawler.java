@@ -0,0 +1,382 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * Crawls web pages starting from a seed URL and adds the text of every page to
+ * the inverted index. Pages are fetched asynchronously with a limited number of
+ * connections per host, while parsing and stemming run on the work queue. A page
+ * reached through a redirect is added under the URL it was finally fetched from,
+ * and only once no matter how many links lead to it. When there is a memory
+ * budget, the index is spilled to disk as pages are added.
+ *
+ * @author EricChen
+ */
+public class WebCrawler {
+
+	/** Default number of simultaneous connections to a single host */
+	public static final int DEFAULT_CONNECTIONS = 4;
+
+	/** Default maximum number of unique URLs to crawl */
+	public static final int DEFAULT_MAX = 50;
+
+	/** Time to wait for a single page before giving up on it */
+	private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+	/** Thread safe inverted index to add the pages to */
+	private final ThreadSafeInvertedIndex index;
+
+	/** Work queue used to parse and stem the fetched pages */
+	private final WorkQueue workQueue;
+
+	/** Client used to fetch the pages */
+	private final HttpClient client;
+
+	/** Maximum number of simultaneous connections to a single host */
+	private final int connections;
+
+	/** Maximum number of unique URLs to crawl */
+	private final int max;
+
+	/** Every URL added to the frontier or reached through a redirect, used to avoid crawling a page twice */
+	private final Set<URI> seen;
+
+	/** URLs the pages were finally fetched from after redirects, used to add a page only once */
+	private final Set<URI> crawled;
+
+	/** Spills the index to disk when it grows past the memory budget, or null if there is no budget */
+	private final IndexSpiller spiller;
+
+	/** Number of URLs added to the frontier */
+	private int admitted;
+
+	/** Host names mapped to the fetches waiting for a connection to that host */
+	private final Map<String, Host> hosts;
+
+	/** Number of URLs added to the frontier that have not been fully processed */
+	private int pending;
+
+	/** Number of pages fetched and added to the index */
+	private final AtomicInteger fetched;
+
+	/** Number of pages that could not be fetched or were not HTML */
+	private final AtomicInteger failed;
+
+	/** Number of pages skipped because a redirect led to a page that was already added */
+	private final AtomicInteger duplicates;
+
+	/** Number of characters of HTML fetched */
+	private final AtomicLong characters;
+
+	/** Time spent on the last crawl in nanoseconds */
+	private long elapsed;
+
+	/**
+	 * Constructor for the web crawler
+	 *
+	 * @param index	thread safe inverted index to add the pages to
+	 * @param workQueue	work queue used to parse and stem the fetched pages
+	 * @param max	maximum number of unique URLs to crawl
+	 * @param connections	maximum number of simultaneous connections to a single host
+	 */
+	public WebCrawler(ThreadSafeInvertedIndex index, WorkQueue workQueue, int max, int connections) {
+		this(index, workQueue, max, connections, null);
+	}
+
+	/**
+	 * Constructor for the web crawler that keeps the index under a memory budget
+	 *
+	 * @param index	thread safe inverted index to add the pages to
+	 * @param workQueue	work queue used to parse and stem the fetched pages
+	 * @param max	maximum number of unique URLs to crawl
+	 * @param connections	maximum number of simultaneous connections to a single host
+	 * @param spiller	spiller holding the memory budget, or null if there is no budget
+	 */
+	public WebCrawler(ThreadSafeInvertedIndex index, WorkQueue workQueue, int max, int connections, IndexSpiller spiller) {
+		this.index = index;
+		this.spiller = spiller;
+		this.workQueue = workQueue;
+		this.max = max;
+		this.connections = connections;
+		this.client = HttpClient.newBuilder()
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(TIMEOUT)
+				.build();
+		this.seen = new HashSet<>();
+		this.crawled = new HashSet<>();
+		this.hosts = new HashMap<>();
+		this.admitted = 0;
+		this.pending = 0;
+		this.fetched = new AtomicInteger();
+		this.failed = new AtomicInteger();
+		this.duplicates = new AtomicInteger();
+		this.characters = new AtomicLong();
+	}
+
+	/**
+	 * Crawls pages starting from the seed until the maximum number of unique URLs
+	 * has been reached or there are no links left, and waits for every page to be
+	 * added to the index.
+	 *
+	 * @param seed	URL to start crawling from
+	 * @throws URISyntaxException if the seed is not a valid URL
+	 */
+	public void crawl(URI seed) throws URISyntaxException {
+		long start = System.nanoTime();
+		admit(HtmlCleaner.normalize(seed));
+
+		synchronized (this) {
+			try {
+				while (pending > 0) {
+					this.wait();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		elapsed = System.nanoTime() - start;
+	}
+
+	/**
+	 * Adds the URL to the frontier if it has not been seen and the maximum has not been reached
+	 *
+	 * @param url	URL to crawl
+	 */
+	private void admit(URI url) {
+		Host host;
+		synchronized (this) {
+			if (admitted >= max || !seen.add(url)) {
+				return;
+			}
+			admitted++;
+			pending++;
+			host = hosts.computeIfAbsent(String.valueOf(url.getAuthority()), key -> new Host());
+		}
+		host.submit(url);
+	}
+
+	/**
+	 * Claims the URL a page was finally fetched from, so a page reached through
+	 * several links or redirects is added only once
+	 *
+	 * @param landed	URL the page was fetched from after redirects
+	 * @return true if no other page was fetched from the URL
+	 */
+	private synchronized boolean claim(URI landed) {
+		seen.add(landed);
+		return crawled.add(landed);
+	}
+
+	/** Marks one URL of the frontier as fully processed */
+	private synchronized void finished() {
+		assert pending > 0;
+		pending--;
+
+		if (pending == 0) {
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Starts an asynchronous fetch of the URL and hands the response to the work queue
+	 *
+	 * @param host	host holding the connection used by this fetch
+	 * @param url	URL to fetch
+	 */
+	private void fetch(Host host, URI url) {
+		HttpRequest request = HttpRequest.newBuilder(url).timeout(TIMEOUT).GET().build();
+		client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+			host.release();
+			if (error != null) {
+				failed.incrementAndGet();
+				finished();
+			}
+			else {
+				workQueue.execute(new Task(url, response));
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of pages fetched and added to the index
+	 *
+	 * @return number of pages fetched
+	 */
+	public int getFetched() {
+		return fetched.get();
+	}
+
+	/**
+	 * Returns the number of pages that could not be fetched or were not HTML
+	 *
+	 * @return number of failed pages
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Returns the number of pages skipped because a redirect led to a page that was already added
+	 *
+	 * @return number of duplicate pages
+	 */
+	public int getDuplicates() {
+		return duplicates.get();
+	}
+
+	/**
+	 * Returns the number of characters of HTML fetched
+	 *
+	 * @return number of characters fetched
+	 */
+	public long getCharacters() {
+		return characters.get();
+	}
+
+	/**
+	 * Returns the number of pages fetched per second during the last crawl
+	 *
+	 * @return pages fetched per second
+	 */
+	public double getPagesPerSecond() {
+		return elapsed == 0 ? 0 : fetched.get() * 1e9 / elapsed;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Crawled %d pages (%d failed, %d duplicates, %d characters) at %.2f pages per second",
+				getFetched(), getFailed(), getDuplicates(), getCharacters(), getPagesPerSecond());
+	}
+
+	/**
+	 * Limits the number of simultaneous fetches from a single host. Fetches over
+	 * the limit wait in a queue instead of blocking a thread.
+	 */
+	private class Host {
+
+		/** Number of fetches currently running against this host */
+		private int active;
+
+		/** URLs waiting for a connection to this host */
+		private final LinkedList<URI> waiting = new LinkedList<>();
+
+		/**
+		 * Fetches the URL now if a connection is available, otherwise queues it
+		 *
+		 * @param url	URL to fetch
+		 */
+		public void submit(URI url) {
+			synchronized (this) {
+				if (active >= connections) {
+					waiting.addLast(url);
+					return;
+				}
+				active++;
+			}
+			fetch(this, url);
+		}
+
+		/** Hands the connection to the next waiting URL, or frees it if none are waiting */
+		public void release() {
+			URI next;
+			synchronized (this) {
+				next = waiting.pollFirst();
+				if (next == null) {
+					active--;
+				}
+			}
+			if (next != null) {
+				fetch(this, next);
+			}
+		}
+	}
+
+	/**
+	 * Task class to parse and stem a fetched page
+	 * @author EricChen
+	 */
+	private class Task implements Runnable {
+
+		/** URL of the page */
+		private final URI url;
+
+		/** Response holding the HTML of the page */
+		private final HttpResponse<String> response;
+
+		/**
+		 * Constructor for task class that takes in the fetched page
+		 * @param url	URL of the page
+		 * @param response	response holding the HTML of the page
+		 */
+		public Task(URI url, HttpResponse<String> response) {
+			this.url = url;
+			this.response = response;
+		}
+
+		@Override
+		public void run() {
+			try {
+				String type = response.headers().firstValue("Content-Type").orElse("");
+				if (response.statusCode() != 200 || !type.toLowerCase().startsWith("text/html")) {
+					failed.incrementAndGet();
+					return;
+				}
+
+				URI landed = url;
+				try {
+					landed = HtmlCleaner.normalize(response.uri());
+				}
+				catch (URISyntaxException e) {
+					landed = url;
+				}
+				if (!claim(landed)) {
+					duplicates.incrementAndGet();
+					return;
+				}
+
+				String html = response.body();
+				for (URI link : HtmlCleaner.listLinks(response.uri(), html)) {
+					admit(link);
+				}
+
+				InvertedIndex local = new InvertedIndex();
+				Stemmer stemmer = new SnowballStemmer(IndexBuilder.DEFAULT);
+				String location = landed.toString();
+				int count = 0;
+				for (String line : HtmlCleaner.stripHtml(html).split("\n")) {
+					count = IndexBuilder.addLine(line, location, count, stemmer, local);
+				}
+				index.addAll(local);
+				if (spiller != null) {
+					try {
+						spiller.check(index);
+					}
+					catch (IOException e) {
+						System.err.printf("Unable to spill the index while crawling %s due to error: %s%n", location, e.toString());
+					}
+				}
+
+				fetched.incrementAndGet();
+				characters.addAndGet(html.length());
+			}
+			finally {
+				finished();
+			}
+		}
+	}
+}
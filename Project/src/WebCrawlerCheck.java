@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Crawls a small linked site served by {@link HttpServer} on the loopback
+ * interface and checks that {@link WebCrawler} keeps to the connection limit
+ * per host, fetches and adds each page once, adds a page reached through a
+ * redirect under its final URL, keeps percent-escaped links as linked, and adds
+ * the same words with a memory budget as without one.
+ *
+ * Usage: {@code java WebCrawlerCheck [connections]}
+ *
+ * @author EricChen
+ */
+public class WebCrawlerCheck {
+
+	/** Default maximum number of simultaneous connections to the host */
+	private static final int DEFAULT_CONNECTIONS = 2;
+
+	/** Number of leaf pages linked from the front page, enough to overlap many fetches */
+	private static final int LEAVES = 12;
+
+	/** How long each response is held back, so fetches overlap */
+	private static final long DELAY = 50;
+
+	/** Number of checks that failed */
+	private static int failures = 0;
+
+	/**
+	 * Serves the site, crawls it with and without a memory budget, and prints the result of each check
+	 *
+	 * @param args optional maximum number of simultaneous connections to the host
+	 * @throws Exception if the server cannot be started or the crawl cannot run
+	 */
+	public static void main(String[] args) throws Exception {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CONNECTIONS;
+
+		Site site = new Site();
+		ExecutorService executor = Executors.newFixedThreadPool(LEAVES + 4);
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", site::handle);
+		server.setExecutor(executor);
+		server.start();
+
+		try {
+			URI seed = new URI("http", null, "127.0.0.1", server.getAddress().getPort(), "/", null, null);
+			String base = seed.toString();
+
+			ThreadSafeInvertedIndex index = crawl(seed, connections, null);
+			check(site.peak.get() <= connections, "at most %d connections to the host (peak %d)", connections, site.peak.get());
+
+			boolean once = true;
+			for (Map.Entry<String, AtomicInteger> entry : site.requests.entrySet()) {
+				if (entry.getValue().get() > 1 && !entry.getKey().equals("/b.html")) {
+					once = false;
+				}
+			}
+			check(once, "every linked page fetched once %s", site.requests);
+
+			Map<String, Integer> counts = index.getCounts();
+			check(counts.size() == LEAVES + 5, "%d pages added (%d)", LEAVES + 5, counts.size());
+			check(counts.containsKey(base + "b.html") && !counts.containsKey(base + "old.html"),
+					"redirected page added once under its final URL");
+			check(counts.containsKey(base + "c%2Fd.html") && site.requests.containsKey("/c%2Fd.html"),
+					"percent-escaped link fetched and added as linked");
+			check(!counts.containsKey(base + "index.html#top"), "fragments removed from links");
+
+			site.requests.clear();
+			site.peak.set(0);
+			IndexSpiller spiller = new IndexSpiller(0);
+			ThreadSafeInvertedIndex spilled = crawl(seed, connections, spiller);
+			check(spiller.hasRuns(), "index spilled under a memory budget");
+			spiller.load(spilled);
+			spiller.delete();
+			check(spilled.toString().equals(index.toString()), "same index with and without a memory budget");
+		}
+		finally {
+			server.stop(0);
+			executor.shutdown();
+		}
+
+		System.out.println(failures == 0 ? "PASS" : String.format("FAIL (%d checks)", failures));
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Crawls the site into a new index
+	 *
+	 * @param seed	URL of the front page
+	 * @param connections	maximum number of simultaneous connections to the host
+	 * @param spiller	spiller holding the memory budget, or null if there is no budget
+	 * @return the crawled index
+	 * @throws URISyntaxException if the seed is not a valid URL
+	 */
+	private static ThreadSafeInvertedIndex crawl(URI seed, int connections, IndexSpiller spiller) throws URISyntaxException {
+		WorkQueue workQueue = new WorkQueue(3);
+		ThreadSafeInvertedIndex index = new ThreadSafeInvertedIndex(workQueue, ThreadSafeInvertedIndex.DEFAULT_PARALLEL_THRESHOLD);
+		WebCrawler crawler = new WebCrawler(index, workQueue, 100, connections, spiller);
+		crawler.crawl(seed);
+		workQueue.finish();
+		workQueue.shutdown();
+		System.out.println(crawler);
+		return index;
+	}
+
+	/**
+	 * Prints the result of a check and counts it if it failed
+	 *
+	 * @param passed	whether the check passed
+	 * @param format	description of the check
+	 * @param args	arguments of the description
+	 */
+	private static void check(boolean passed, String format, Object... args) {
+		if (!passed) {
+			failures++;
+		}
+		System.out.printf("%s %s%n", passed ? "PASS" : "FAIL", String.format(format, args));
+	}
+
+	/**
+	 * The linked site, counting the requests for each path and the most requests served at once
+	 */
+	private static class Site {
+
+		/** Number of requests for each raw path */
+		private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+		/** Number of requests being served */
+		private final AtomicInteger active = new AtomicInteger();
+
+		/** Most requests served at once */
+		private final AtomicInteger peak = new AtomicInteger();
+
+		/** Pages of the site by raw path */
+		private final Map<String, String> pages = new TreeMap<>();
+
+		/** Builds the pages of the site */
+		public Site() {
+			StringBuilder front = new StringBuilder("<html><body><p>front page of the site</p>");
+			front.append("<a href=\"/index.html#top\">top</a> <a href=\"/\">home</a> ");
+			front.append("<a href=\"a.html\">a</a> <a href=\"/a.html\">a again</a> ");
+			front.append("<a href=\"old.html\">old</a> <a href=\"b.html\">b</a> <a href=\"c%2Fd.html\">escaped</a> ");
+			for (int i = 0; i < LEAVES; i++) {
+				front.append(String.format("<a href=\"leaf%d.html\">leaf %d</a> ", i, i));
+			}
+			front.append("</body></html>");
+
+			pages.put("/", front.toString());
+			pages.put("/index.html", "<html><body><p>index page</p><a href=\"/\">home</a></body></html>");
+			pages.put("/a.html", "<html><body><p>apple page</p><a href=\"b.html\">banana</a></body></html>");
+			pages.put("/b.html", "<html><body><p>banana page</p><a href=\"a.html\">apple</a></body></html>");
+			pages.put("/c%2Fd.html", "<html><body><p>escaped cherry page</p></body></html>");
+			for (int i = 0; i < LEAVES; i++) {
+				pages.put(String.format("/leaf%d.html", i), String.format("<html><body><p>leaf number %d</p><a href=\"/\">home</a></body></html>", i));
+			}
+		}
+
+		/**
+		 * Serves one request, redirecting {@code /old.html} to {@code /b.html}
+		 *
+		 * @param exchange	the request and response
+		 * @throws IOException if unable to send the response
+		 */
+		public void handle(HttpExchange exchange) throws IOException {
+			String path = exchange.getRequestURI().getRawPath();
+			requests.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+			peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+
+			try {
+				Thread.sleep(DELAY);
+				if (path.equals("/old.html")) {
+					exchange.getResponseHeaders().set("Location", "/b.html");
+					exchange.sendResponseHeaders(302, -1);
+					return;
+				}
+
+				String page = pages.get(path);
+				byte[] body = (page == null ? "<html><body>missing</body></html>" : page).getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+				exchange.sendResponseHeaders(page == null ? 404 : 200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				active.decrementAndGet();
+				exchange.close();
+			}
+		}
+	}
+}
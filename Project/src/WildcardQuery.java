@@ -0,0 +1,81 @@
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * Query line where at least one word has a {@code *} wildcard, for example
+ * {@code *tion} or {@code net*work}. Words with a wildcard are kept as patterns
+ * of lowercase letters and are not stemmed, since a piece of a word has no stem.
+ * The other words of the line are stemmed as usual.
+ *
+ * @author EricChen
+ */
+public class WildcardQuery {
+
+	/** Stemmed words and patterns of the query in sorted order */
+	private final TreeSet<String> terms;
+
+	/**
+	 * Constructor for the wildcard query
+	 *
+	 * @param terms	stemmed words and patterns of the query
+	 */
+	public WildcardQuery(TreeSet<String> terms) {
+		this.terms = terms;
+	}
+
+	/**
+	 * Parses and stems the line if one of its words has a wildcard
+	 *
+	 * @param line	query line
+	 * @param stemmer	the stemmer to use
+	 * @return the wildcard query, or null if the line has no wildcard patterns
+	 */
+	public static WildcardQuery parse(String line, Stemmer stemmer) {
+		if (line.indexOf(GramIndex.WILDCARD) < 0 || line.indexOf('"') >= 0) {
+			return null;
+		}
+
+		TreeSet<String> terms = new TreeSet<>();
+		boolean patterns = false;
+		for (String token : TextParser.split(line)) {
+			if (token.indexOf(GramIndex.WILDCARD) < 0) {
+				for (String word : TextParser.parse(token)) {
+					terms.add(stemmer.stem(word).toString());
+				}
+				continue;
+			}
+
+			String[] parts = token.split("\\" + GramIndex.WILDCARD, -1);
+			for (int i = 0; i < parts.length; i++) {
+				parts[i] = TextParser.clean(parts[i]);
+			}
+			String pattern = String.join(String.valueOf(GramIndex.WILDCARD), parts).replaceAll("\\" + GramIndex.WILDCARD + "+", String.valueOf(GramIndex.WILDCARD));
+			if (pattern.length() == 1) {
+				continue;
+			}
+			terms.add(pattern);
+			patterns = true;
+		}
+		return patterns ? new WildcardQuery(terms) : null;
+	}
+
+	/**
+	 * Returns the stemmed words and patterns of the query in sorted order
+	 *
+	 * @return unmodifiable set of stemmed words and patterns
+	 */
+	public Set<String> getTerms() {
+		return Collections.unmodifiableSet(terms);
+	}
+
+	/**
+	 * Returns the key used for this query in the results
+	 */
+	@Override
+	public String toString() {
+		return String.join(" ", terms);
+	}
+}
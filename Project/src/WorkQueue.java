@@ -1,12 +1,30 @@
-import java.util.LinkedList;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A simple work queue implementation based on the IBM Developer article by
- * Brian Goetz. It is up to the user of this class to keep track of whether
- * there is any pending work remaining.
+ * A work queue where every worker thread owns its own deque of work requests.
+ * Workers take work from the front of their own deque and, when it is empty,
+ * steal work from the back of the other deques. Work added by a worker goes to
+ * the front of its own deque, while work added by any other thread is spread
+ * across the deques in turn. It is up to the user of this class to keep track
+ * of whether there is any pending work remaining.
  *
- * @see <a href="https://www.ibm.com/developerworks/library/j-jtp0730/index.html">
- * Java Theory and Practice: Thread Pools and Work Queues</a>
+ * Work can also be submitted through a {@link TaskGroup}, so separate phases
+ * sharing the same pool of threads can each wait for only their own work.
+ *
+ * Work is split into two {@link Priority} lanes, each with its own set of
+ * deques. Workers look for interactive work before bulk work, but after
+ * {@link #BULK_SHARE} interactive requests in a row a worker looks at the bulk
+ * lane first, so bulk work keeps making progress under a steady stream of
+ * interactive work.
+ *
+ * @see SimpleWorkQueue
  */
 public class WorkQueue {
 
@@ -16,18 +34,59 @@ public class WorkQueue {
 	 */
 	private final PoolWorker[] workers;
 
-	/** Queue of pending work requests. */
-	private final LinkedList<Runnable> queue;
+	/** Deques of pending work requests, one for each lane and worker. */
+	private final ArrayDeque<Runnable>[][] deques;
 
 	/** Used to signal the queue should be shutdown. */
 	private volatile boolean shutdown;
 
 	/** Determines how many work requests are pending */
-	private int pending = 0;
+	private final AtomicInteger pending;
+
+	/** Number of workers waiting for work to become available */
+	private final AtomicInteger idle;
+
+	/** Number of work requests waiting in each lane, never less than the number in its deques */
+	private final AtomicInteger[] queued;
+
+	/** Lock idle workers wait on until work is available */
+	private final Object lock;
+
+	/** Whether an idle worker has been woken and has not started looking for work yet, guarded by the lock */
+	private volatile boolean waking;
+
+	/** Number of threads waiting in {@link #finish()}, guarded by this queue */
+	private volatile int finishing;
+
+	/** Number of workers allowed to take work; the rest wait until the pool grows */
+	private volatile int active;
+
+	/** Lock workers beyond the active count wait on until the pool grows */
+	private final Object resize;
+
+	/** Queue depth, wait and run times, utilization, and exceptions of this queue */
+	private final WorkQueueMetrics metrics;
 
 	/** The default number of threads to use when not specified. */
 	public static final int DEFAULT = 5;
 
+	/** Number of interactive requests a worker runs in a row before it favors bulk work. */
+	public static final int BULK_SHARE = 8;
+
+	/** The lanes in the order workers look at them, kept so looking for work does not copy the values */
+	private static final Priority[] LANES = Priority.values();
+
+	/**
+	 * Lanes of work. Interactive work, such as queries, is taken before bulk
+	 * work, such as indexing files.
+	 */
+	public enum Priority {
+		/** Latency-sensitive work that should jump ahead of bulk work */
+		INTERACTIVE,
+		/** Throughput-oriented work that may wait behind interactive work */
+		BULK
+	}
+
 	/**
 	 * Starts a work queue with the default number of threads.
 	 *
@@ -43,45 +102,169 @@ public class WorkQueue {
 	 * @param threads number of worker threads; should be greater than 1
 	 */
 	public WorkQueue(int threads) {
-		this.queue = new LinkedList<Runnable>();
-		this.workers = new PoolWorker[threads];
-		this.pending = 0;
+		this(threads, threads);
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads that can later
+	 * be resized up to the maximum number of threads.
+	 *
+	 * @param threads number of worker threads; should be greater than 1
+	 * @param maximum largest number of worker threads the queue can be resized to
+	 *
+	 * @see #resize(int)
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public WorkQueue(int threads, int maximum) {
+		maximum = Math.max(threads, maximum);
+		this.workers = new PoolWorker[maximum];
+		this.deques = new ArrayDeque[Priority.values().length][maximum];
+		this.pending = new AtomicInteger();
+		this.idle = new AtomicInteger();
+		this.queued = new AtomicInteger[Priority.values().length];
+		this.lock = new Object();
+		this.resize = new Object();
+		this.active = threads;
+		this.metrics = new WorkQueueMetrics(maximum);
 		this.shutdown = false;
 
+		for (int i = 0; i < deques.length; i++) {
+			queued[i] = new AtomicInteger();
+			for (int j = 0; j < maximum; j++) {
+				deques[i][j] = new ArrayDeque<>();
+			}
+		}
+
 		// start the threads so they are waiting in the background
-		for (int i = 0; i < threads; i++) {
-			workers[i] = new PoolWorker();
+		for (int i = 0; i < maximum; i++) {
+			workers[i] = new PoolWorker(i);
 			workers[i].start();
 		}
 	}
 
 	/**
-	 * Adds a work request to the queue. A thread will process this request when
-	 * available.
+	 * Adds a bulk work request to the queue. A thread will process this request
+	 * when available.
 	 *
 	 * @param r work request (in the form of a {@link Runnable} object)
 	 */
 	public void execute(Runnable r) {
-		incrementPending();
+		execute(r, Priority.BULK);
+	}
+
+	/**
+	 * Adds a work request to the given lane of the queue. A thread will process
+	 * this request when available.
+	 *
+	 * @param r work request (in the form of a {@link Runnable} object)
+	 * @param priority lane of the work request
+	 */
+	public void execute(Runnable r, Priority priority) {
+		pending.incrementAndGet();
+		metrics.submitted();
+		// only wrap the request with the time it was queued when it is being timed
+		Runnable work = metrics.isEnabled() ? new Work(r, System.nanoTime()) : r;
+		ArrayDeque<Runnable>[] lane = deques[priority.ordinal()];
 
-		synchronized(queue){
-			queue.addLast(r);
-			queue.notifyAll();
+		// counted before it is added, so a lane counted as empty never holds work
+		queued[priority.ordinal()].incrementAndGet();
+		Thread current = Thread.currentThread();
+		if (current instanceof PoolWorker && ((PoolWorker) current).owner() == this) {
+			ArrayDeque<Runnable> own = lane[((PoolWorker) current).id];
+			synchronized (own) {
+				own.addFirst(work);
+			}
+		}
+		else {
+			ArrayDeque<Runnable> other = lane[ThreadLocalRandom.current().nextInt(active)];
+			synchronized (other) {
+				other.addLast(work);
+			}
+		}
+
+		// only pay for the lock when a worker might be waiting and none is already on its way
+		if (idle.get() > 0 && !waking) {
+			wake();
 		}
 	}
 
+	/**
+	 * Wakes one idle worker unless one has already been woken. The woken worker
+	 * wakes the next one if there is still work waiting, so a burst of work wakes
+	 * workers one at a time instead of once for every request.
+	 */
+	private void wake() {
+		synchronized (lock) {
+			if (!waking) {
+				waking = true;
+				lock.notify();
+			}
+		}
+	}
+
+	/**
+	 * Adds a work request to the queue and returns a future for its result.
+	 *
+	 * @param <T> the result type of the work request
+	 * @param task work request (in the form of a {@link Callable} object)
+	 * @return future holding the result or exception of the work request
+	 */
+	public <T> Future<T> submit(Callable<T> task) {
+		FutureTask<T> future = new CountedFuture<>(task);
+		execute(future);
+		return future;
+	}
+
+	/**
+	 * Adds a work request to the queue and returns a future that completes
+	 * when it has run.
+	 *
+	 * @param task work request (in the form of a {@link Runnable} object)
+	 * @return future holding the exception of the work request, if any
+	 */
+	public Future<?> submit(Runnable task) {
+		FutureTask<?> future = new CountedFuture<>(task);
+		execute(future);
+		return future;
+	}
+
+	/**
+	 * Creates a new group of bulk work requests that share this queue's threads
+	 * but can be waited on separately.
+	 *
+	 * @return new task group
+	 */
+	public TaskGroup newGroup() {
+		return newGroup(Priority.BULK);
+	}
+
+	/**
+	 * Creates a new group of work requests in the given lane that share this
+	 * queue's threads but can be waited on separately.
+	 *
+	 * @param priority lane of the work requests in the group
+	 * @return new task group
+	 */
+	public TaskGroup newGroup(Priority priority) {
+		return new TaskGroup(priority);
+	}
+
 	/**
 	 * Waits for all pending work to be finished.
 	 */
 	public synchronized void finish() {
+		finishing++;
 		try {
-			while (pending > 0) {
+			while (pending.get() > 0) {
 				this.wait();
 			}
 		}
 		catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 		}
+		finally {
+			finishing--;
+		}
 	}
 
 	/**
@@ -92,8 +275,11 @@ public class WorkQueue {
 		// safe to do unsynchronized due to volatile keyword
 		finish();
 		shutdown = true;
-		synchronized(queue){
-			queue.notifyAll();
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		synchronized (resize) {
+			resize.notifyAll();
 		}
 	}
 
@@ -103,66 +289,419 @@ public class WorkQueue {
 	 * @return number of worker threads
 	 */
 	public int size() {
+		return active;
+	}
+
+	/**
+	 * Returns the largest number of worker threads the work queue can be resized to.
+	 *
+	 * @return maximum number of worker threads
+	 */
+	public int capacity() {
 		return workers.length;
 	}
 
-	/** Increments number of pending work requests */
-	private synchronized void incrementPending() {
-		pending++;
+	/**
+	 * Changes the number of worker threads taking work. Workers beyond the new
+	 * size finish their current work request and then wait until the queue grows
+	 * again; any work left in their deques is stolen by the others.
+	 *
+	 * @param threads new number of worker threads, between 1 and the capacity
+	 */
+	public void resize(int threads) {
+		active = Math.max(1, Math.min(threads, workers.length));
+		synchronized (resize) {
+			resize.notifyAll();
+		}
 	}
 
-	/** Decrements number of pending work requests */
-	private synchronized void decrementPending() {
-		assert pending > 0;
-		pending--;
+	/**
+	 * Returns the CPU time used by the worker threads, if the JVM supports measuring it.
+	 *
+	 * @return total CPU time of the workers in nanoseconds, or -1 if not supported
+	 */
+	public long getCpuTime() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!bean.isThreadCpuTimeSupported() || !bean.isThreadCpuTimeEnabled()) {
+			return -1;
+		}
+		long total = 0;
+		for (PoolWorker worker : workers) {
+			total += Math.max(0, bean.getThreadCpuTime(worker.getId()));
+		}
+		return total;
+	}
 
-		if (pending == 0) {
-			this.notifyAll();
+	/**
+	 * Returns the metrics collected for this work queue.
+	 *
+	 * @return metrics of this work queue
+	 */
+	public WorkQueueMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** Decrements number of pending work requests, waking the threads waiting for none to be left */
+	private void decrementPending() {
+		if (pending.decrementAndGet() == 0 && finishing > 0) {
+			synchronized (this) {
+				this.notifyAll();
+			}
 		}
 	}
 
 	/**
-	 * Waits until work is available in the work queue. When work is found, will
-	 * remove the work from the queue and run it. If a shutdown is detected,
-	 * will exit instead of grabbing new work from the queue. These threads will
-	 * continue running in the background until a shutdown is requested.
+	 * Determines whether every deque is empty.
+	 *
+	 * @return true if there is no work waiting in any deque
 	 */
-	private class PoolWorker extends Thread {
+	private boolean isEmpty() {
+		for (AtomicInteger count : queued) {
+			if (count.get() > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A work request along with the time it was added to the queue, used only
+	 * while the metrics are timing work requests.
+	 */
+	private static class Work implements Runnable {
+
+		/** The work request */
+		private final Runnable task;
+
+		/** Time the request was added to the queue in nanoseconds */
+		private final long queued;
+
+		/**
+		 * Wraps a work request
+		 *
+		 * @param task the work request
+		 * @param queued time the request was added to the queue in nanoseconds
+		 */
+		public Work(Runnable task, long queued) {
+			this.task = task;
+			this.queued = queued;
+		}
+
 		@Override
 		public void run() {
-			Runnable r = null;
+			task.run();
+		}
+	}
+
+	/**
+	 * A future that counts the exception of its work request in the metrics, since
+	 * the future keeps the exception from ever reaching the worker.
+	 *
+	 * @param <T> the result type of the work request
+	 */
+	private class CountedFuture<T> extends FutureTask<T> {
+
+		/**
+		 * Wraps a work request with a result
+		 *
+		 * @param task the work request
+		 */
+		public CountedFuture(Callable<T> task) {
+			super(task);
+		}
+
+		/**
+		 * Wraps a work request without a result
+		 *
+		 * @param task the work request
+		 */
+		public CountedFuture(Runnable task) {
+			super(task, null);
+		}
+
+		@Override
+		protected void setException(Throwable t) {
+			metrics.failed();
+			super.setException(t);
+		}
+	}
+
+	/**
+	 * A group of work requests run by this queue's threads. Waiting on a group
+	 * only waits for the work submitted through that group, so other work in
+	 * the queue may still be running when it returns. A group should not be
+	 * waited on from one of this queue's own threads.
+	 */
+	public class TaskGroup {
+
+		/** Number of work requests in this group that have not finished */
+		private int pending;
+
+		/** Lane of the work requests in this group */
+		private final Priority priority;
+
+		/**
+		 * Creates a group of work requests in the given lane
+		 *
+		 * @param priority lane of the work requests in the group
+		 */
+		private TaskGroup(Priority priority) {
+			this.priority = priority;
+		}
+
+		/**
+		 * Adds a work request to the group. A thread will process this request
+		 * when available.
+		 *
+		 * @param r work request (in the form of a {@link Runnable} object)
+		 */
+		public void execute(Runnable r) {
+			increment();
+			WorkQueue.this.execute(() -> {
+				try {
+					r.run();
+				}
+				finally {
+					decrement();
+				}
+			}, priority);
+		}
+
+		/**
+		 * Adds a work request to the group and returns a future for its result.
+		 *
+		 * @param <T> the result type of the work request
+		 * @param task work request (in the form of a {@link Callable} object)
+		 * @return future holding the result or exception of the work request
+		 */
+		public <T> Future<T> submit(Callable<T> task) {
+			FutureTask<T> future = new CountedFuture<>(task);
+			execute(future);
+			return future;
+		}
+
+		/**
+		 * Adds a work request to the group and returns a future that completes
+		 * when it has run.
+		 *
+		 * @param task work request (in the form of a {@link Runnable} object)
+		 * @return future holding the exception of the work request, if any
+		 */
+		public Future<?> submit(Runnable task) {
+			FutureTask<?> future = new CountedFuture<>(task);
+			execute(future);
+			return future;
+		}
+
+		/**
+		 * Waits for all pending work in this group to be finished.
+		 */
+		public synchronized void finish() {
+			try {
+				while (pending > 0) {
+					this.wait();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/** Increments number of pending work requests in this group */
+		private synchronized void increment() {
+			pending++;
+		}
+
+		/** Decrements number of pending work requests in this group */
+		private synchronized void decrement() {
+			assert pending > 0;
+			pending--;
 
+			if (pending == 0) {
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Looks for work in its own deque and then in the others. When no work is
+	 * found, waits until work is added. If a shutdown is detected, will exit
+	 * instead of looking for new work. These threads will continue running in
+	 * the background until a shutdown is requested.
+	 */
+	private class PoolWorker extends Thread {
+
+		/** Position of this worker and its deques */
+		private final int id;
+
+		/** Number of interactive requests this worker has run in a row */
+		private int streak;
+
+		/** Lane of the work request this worker took last */
+		private Priority lane;
+
+		/** Deque this worker last stole from, which is tried first the next time it steals */
+		private int victim;
+
+		/**
+		 * Creates the worker for the deque at the given position
+		 *
+		 * @param id position of this worker and its deque
+		 */
+		public PoolWorker(int id) {
+			this.id = id;
+			this.victim = id;
+		}
+
+		/**
+		 * Returns the work queue this worker belongs to
+		 *
+		 * @return the work queue this worker belongs to
+		 */
+		public WorkQueue owner() {
+			return WorkQueue.this;
+		}
+
+		/**
+		 * Takes interactive work if there is any, otherwise bulk work. When the
+		 * worker has run too many interactive requests in a row, bulk work is
+		 * taken first instead. The lane of the work is kept in {@link #lane}.
+		 *
+		 * @param bulkFirst whether to look at the bulk lane first
+		 * @return the work request, or null if every deque is empty
+		 */
+		private Runnable take(boolean bulkFirst) {
+			if (bulkFirst) {
+				Runnable r = take(Priority.BULK);
+				if (r != null) {
+					lane = Priority.BULK;
+					return r;
+				}
+			}
+			for (Priority priority : LANES) {
+				Runnable r = take(priority);
+				if (r != null) {
+					lane = priority;
+					return r;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Takes work from the front of this worker's own deque in the lane, or
+		 * steals work from the back of another deque in the lane if its own is
+		 * empty, starting with the deque it last stole from. A lane with no work
+		 * waiting is skipped without looking at its deques.
+		 *
+		 * @param priority the lane
+		 * @return the work request, or null if every deque in the lane is empty
+		 */
+		private Runnable take(Priority priority) {
+			AtomicInteger count = queued[priority.ordinal()];
+			if (count.get() == 0) {
+				return null;
+			}
+			ArrayDeque<Runnable>[] deque = deques[priority.ordinal()];
+			Runnable r;
+			synchronized (deque[id]) {
+				r = deque[id].pollFirst();
+			}
+			for (int i = 0; r == null && i < deque.length; i++) {
+				int other = (victim + i) % deque.length;
+				if (other != id) {
+					synchronized (deque[other]) {
+						r = deque[other].pollLast();
+					}
+					if (r != null) {
+						victim = other;
+					}
+				}
+			}
+			if (r != null) {
+				count.decrementAndGet();
+			}
+			return r;
+		}
+
+		@Override
+		public void run() {
 			while (true) {
-				synchronized (queue) {
-					while (queue.isEmpty() && !shutdown) {
-						try {
-							queue.wait();
-						} catch (InterruptedException ex) {
-							System.err.println("Warning: Work queue interrupted.");
-							Thread.currentThread().interrupt();
+				if (id >= active) {
+					synchronized (resize) {
+						while (id >= active && !shutdown) {
+							try {
+								resize.wait();
+							} catch (InterruptedException ex) {
+								System.err.println("Warning: Work queue interrupted.");
+								Thread.currentThread().interrupt();
+							}
 						}
 					}
-					// exit while for one of two reasons:
-					// (a) queue has work, or (b) shutdown has been called
+					if (shutdown) {
+						break;
+					}
+				}
+
+				Runnable r = take(streak >= BULK_SHARE);
+
+				if (r == null) {
+					synchronized (lock) {
+						idle.incrementAndGet();
+						// any wakeup in flight is not needed while this worker can still see the work
+						waking = false;
+						while (isEmpty() && !shutdown) {
+							try {
+								lock.wait();
+							} catch (InterruptedException ex) {
+								System.err.println("Warning: Work queue interrupted.");
+								Thread.currentThread().interrupt();
+							}
+							// the woken worker looks for work itself, so the next request may wake another
+							waking = false;
+						}
+						idle.decrementAndGet();
+						if (id >= active && !shutdown) {
+							// the pool shrank while this worker waited, so pass the wakeup on to an active worker
+							waking = true;
+							lock.notify();
+						}
+					}
+					// exit wait for one of two reasons:
+					// (a) a deque has work, or (b) shutdown has been called
 
 					if (shutdown) {
 						break;
-					} else {
-						r = queue.removeFirst();
 					}
+					continue;
+				}
+
+				if (idle.get() > 0 && !waking && !isEmpty()) {
+					wake();
 				}
 
+				streak = lane == Priority.INTERACTIVE ? streak + 1 : 0;
+				Runnable task = r;
+				long queued = 0;
+				if (r instanceof Work) {
+					task = ((Work) r).task;
+					queued = ((Work) r).queued;
+				}
+				long began = metrics.started(id, queued, lane);
+				boolean failed = false;
 				try {
-					r.run();
+					task.run();
 				}
 				catch (RuntimeException ex) {
 					// catch runtime exceptions to avoid leaking threads
+					failed = true;
 					System.err.println("Warning: Work queue encountered an exception while running.");
 				}
 				finally {
+					metrics.finished(id, began, failed);
 					decrementPending();
 				}
 			}
 		}
 	}
-}
\ No newline at end of file
+}
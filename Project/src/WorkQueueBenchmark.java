@@ -0,0 +1,91 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Compares the task throughput of {@link WorkQueue} against the single shared
+ * queue of {@link SimpleWorkQueue} using many tiny tasks, similar to the
+ * per-line tasks submitted by {@link MultiQueryBuilder}.
+ *
+ * Usage: {@code java WorkQueueBenchmark [tasks] [threads...]}
+ *
+ * @author EricChen
+ */
+public class WorkQueueBenchmark {
+
+	/** Default number of tasks submitted per measurement */
+	private static final int DEFAULT_TASKS = 500_000;
+
+	/** Default thread counts to measure */
+	private static final int[] DEFAULT_THREADS = { 4, 8, 16, 32, 64 };
+
+	/** Number of untimed rounds before measuring */
+	private static final int WARMUP = 3;
+
+	/** Number of timed rounds that are averaged */
+	private static final int ROUNDS = 5;
+
+	/** Keeps the work done by the tasks from being optimized away */
+	private static final AtomicLong SINK = new AtomicLong();
+
+	/**
+	 * Runs the benchmark for each thread count and prints tasks per second for both queues
+	 *
+	 * @param args optional number of tasks followed by the thread counts to measure
+	 */
+	public static void main(String[] args) {
+		int tasks = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TASKS;
+		int[] threads = DEFAULT_THREADS;
+		if (args.length > 1) {
+			threads = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				threads[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.printf("%8s %18s %18s %8s%n", "threads", "SimpleWorkQueue", "WorkQueue", "speedup");
+		for (int count : threads) {
+			SimpleWorkQueue simple = new SimpleWorkQueue(count);
+			double before = measure(tasks, simple::execute, simple::finish);
+			simple.shutdown();
+
+			WorkQueue stealing = new WorkQueue(count);
+			double after = measure(tasks, stealing::execute, stealing::finish);
+			stealing.shutdown();
+
+			System.out.printf("%8d %18.0f %18.0f %7.2fx%n", count, before, after, after / before);
+		}
+	}
+
+	/**
+	 * Submits the tasks and waits for them to finish, returning the average tasks per second
+	 *
+	 * @param tasks number of tasks per round
+	 * @param execute submits a task to the queue
+	 * @param finish waits for the queue to finish
+	 * @return average tasks per second over the timed rounds
+	 */
+	private static double measure(int tasks, Consumer<Runnable> execute, Runnable finish) {
+		double total = 0;
+		for (int round = 0; round < WARMUP + ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < tasks; i++) {
+				final int seed = i;
+				execute.accept(() -> {
+					int hash = seed;
+					for (int j = 0; j < 32; j++) {
+						hash = hash * 31 + j;
+					}
+					if (hash == 0) {
+						SINK.incrementAndGet();
+					}
+				});
+			}
+			finish.run();
+			long elapsed = System.nanoTime() - start;
+			if (round >= WARMUP) {
+				total += tasks * 1e9 / elapsed;
+			}
+		}
+		return total / ROUNDS;
+	}
+}
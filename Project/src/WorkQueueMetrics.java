@@ -0,0 +1,522 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects metrics for a {@link WorkQueue}: queue depth, how long work waits in
+ * the queue and how long it runs, how busy each worker is, and how many
+ * exceptions were thrown. The metrics can be exposed as a JMX MBean and
+ * periodically written to a JSON file.
+ *
+ * Counting is cheap enough to always be on: each worker keeps its own counts
+ * on its own cache line, written only by that worker, and submissions go to a
+ * striped counter. Timing work requests costs clock reads, histogram updates,
+ * and a wrapper for each request, so it is only done once {@link #enable()}
+ * is called. The largest queue depth is found by sampling rather than on
+ * every request: it is checked whenever the depth is read, such as by the
+ * JSON file and the {@link ThreadController}.
+ *
+ * @author EricChen
+ */
+public class WorkQueueMetrics implements WorkQueueMetricsMBean {
+
+	/** Number of queue depth samples kept for the JSON file */
+	private static final int HISTORY = 120;
+
+	/** Number of counters given to each worker, enough to keep every worker on its own cache line */
+	private static final int STRIDE = 8;
+
+	/** Offset of the count of work requests a worker has taken */
+	private static final int STARTED = 0;
+
+	/** Offset of the count of work requests a worker has finished */
+	private static final int COMPLETED = 1;
+
+	/** Offset of the count of work requests that threw an exception on a worker */
+	private static final int EXCEPTIONS = 2;
+
+	/** Offset of the time a worker spent running work requests in nanoseconds */
+	private static final int BUSY = 3;
+
+	/** Time work requests started being timed in nanoseconds, or 0 until {@link #enable()} is called */
+	private volatile long start;
+
+	/** Number of work requests added to the queue */
+	private final LongAdder submitted;
+
+	/** Counts and busy time of each worker, {@link #STRIDE} apart and each written only by its worker */
+	private final AtomicLongArray workers;
+
+	/** Number of worker threads */
+	private final int threads;
+
+	/** Number of searches that ran out of time and returned the results found so far */
+	private final AtomicLong timeouts;
+
+	/** Number of exceptions caught inside work requests before they reached a worker */
+	private final LongAdder caught;
+
+	/** Largest number of work requests seen waiting at once when the depth was read */
+	private long maxDepth;
+
+	/** Whether work requests are timed */
+	private volatile boolean enabled;
+
+	/** Time work requests waited in the queue */
+	private final LatencyHistogram wait;
+
+	/** Time work requests took to run */
+	private final LatencyHistogram run;
+
+	/** Time work requests waited in the queue for each lane */
+	private final LatencyHistogram[] lanes;
+
+	/** Recent samples of the time in milliseconds and the queue depth */
+	private final LinkedList<long[]> history;
+
+	/** Timer writing the JSON file, or null if it is not being written */
+	private Timer timer;
+
+	/** Name the MBean was registered under, or null if it is not registered */
+	private ObjectName name;
+
+	/**
+	 * Creates the metrics for a work queue
+	 *
+	 * @param threads number of worker threads
+	 */
+	public WorkQueueMetrics(int threads) {
+		this.start = 0;
+		this.submitted = new LongAdder();
+		this.workers = new AtomicLongArray(threads * STRIDE);
+		this.threads = threads;
+		this.timeouts = new AtomicLong();
+		this.caught = new LongAdder();
+		this.maxDepth = 0;
+		this.enabled = false;
+		this.wait = new LatencyHistogram();
+		this.run = new LatencyHistogram();
+		this.lanes = new LatencyHistogram[WorkQueue.Priority.values().length];
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new LatencyHistogram();
+		}
+		this.history = new LinkedList<>();
+	}
+
+	/**
+	 * Starts timing work requests, which the wait and run times, utilization, and
+	 * busy time depend on. Requests already waiting in the queue are timed from
+	 * when they start running, and utilization is measured from now.
+	 */
+	public synchronized void enable() {
+		if (!enabled) {
+			start = System.nanoTime();
+			enabled = true;
+		}
+	}
+
+	/**
+	 * Checks to see if work requests are being timed
+	 *
+	 * @return true if {@link #enable()} was called
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Records a work request being added to the queue
+	 */
+	public void submitted() {
+		submitted.increment();
+	}
+
+	/**
+	 * Records a work request being taken from the queue
+	 *
+	 * @param worker the worker that took the request
+	 * @param queued the time the request was added in nanoseconds, or 0 if it was not timed
+	 * @param priority the lane the request was taken from
+	 * @return the time the request was taken in nanoseconds, or 0 if it is not timed
+	 */
+	public long started(int worker, long queued, WorkQueue.Priority priority) {
+		add(worker, STARTED, 1);
+		if (!enabled) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		if (queued != 0) {
+			wait.record(now - queued);
+			lanes[priority.ordinal()].record(now - queued);
+		}
+		return now;
+	}
+
+	/**
+	 * Records an exception thrown by a work request that was caught before it
+	 * reached the worker, such as by a future or by a task reporting its own errors
+	 */
+	public void failed() {
+		caught.increment();
+	}
+
+	/**
+	 * Records a search running out of time
+	 */
+	public void timedOut() {
+		timeouts.incrementAndGet();
+	}
+
+	/**
+	 * Records a work request finishing
+	 *
+	 * @param worker the worker that ran the request
+	 * @param began the time the request was taken in nanoseconds, or 0 if it was not timed
+	 * @param failed whether the request threw an exception
+	 */
+	public void finished(int worker, long began, boolean failed) {
+		if (began != 0) {
+			long elapsed = System.nanoTime() - began;
+			run.record(elapsed);
+			add(worker, BUSY, elapsed);
+		}
+		add(worker, COMPLETED, 1);
+		if (failed) {
+			add(worker, EXCEPTIONS, 1);
+		}
+	}
+
+	/**
+	 * Adds to a counter of a worker. Only the worker itself writes its counters,
+	 * so the update needs no compare and swap.
+	 *
+	 * @param worker the worker
+	 * @param counter offset of the counter
+	 * @param delta amount to add
+	 */
+	private void add(int worker, int counter, long delta) {
+		int i = worker * STRIDE + counter;
+		workers.setRelease(i, workers.getPlain(i) + delta);
+	}
+
+	/**
+	 * Adds up a counter across the workers
+	 *
+	 * @param counter offset of the counter
+	 * @return total of the counter
+	 */
+	private long sum(int counter) {
+		long total = 0;
+		for (int worker = 0; worker < threads; worker++) {
+			total += workers.getAcquire(worker * STRIDE + counter);
+		}
+		return total;
+	}
+
+	@Override
+	public int getThreads() {
+		return threads;
+	}
+
+	@Override
+	public long getQueueDepth() {
+		long started = sum(STARTED);
+		long depth = Math.max(0, submitted.sum() - started);
+		synchronized (this) {
+			maxDepth = Math.max(maxDepth, depth);
+		}
+		return depth;
+	}
+
+	@Override
+	public long getMaxQueueDepth() {
+		getQueueDepth();
+		synchronized (this) {
+			return maxDepth;
+		}
+	}
+
+	@Override
+	public long getSubmitted() {
+		return submitted.sum();
+	}
+
+	@Override
+	public long getCompleted() {
+		return sum(COMPLETED);
+	}
+
+	@Override
+	public long getExceptions() {
+		return sum(EXCEPTIONS) + caught.sum();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	@Override
+	public double getWaitMean() {
+		return wait.getMean();
+	}
+
+	@Override
+	public double getWaitP99() {
+		return wait.getPercentile(0.99);
+	}
+
+	@Override
+	public double getInteractiveWaitP99() {
+		return getWait(WorkQueue.Priority.INTERACTIVE).getPercentile(0.99);
+	}
+
+	@Override
+	public double getBulkWaitP99() {
+		return getWait(WorkQueue.Priority.BULK).getPercentile(0.99);
+	}
+
+	@Override
+	public double getRunMean() {
+		return run.getMean();
+	}
+
+	@Override
+	public double getRunP99() {
+		return run.getPercentile(0.99);
+	}
+
+	@Override
+	public double[] getWorkerUtilization() {
+		double[] utilization = new double[threads];
+		long began = start;
+		if (began == 0) {
+			return utilization;
+		}
+		double elapsed = Math.max(1, System.nanoTime() - began);
+		for (int i = 0; i < utilization.length; i++) {
+			utilization[i] = Math.min(1, workers.getAcquire(i * STRIDE + BUSY) / elapsed);
+		}
+		return utilization;
+	}
+
+	/**
+	 * Returns the total time all workers spent running work requests
+	 *
+	 * @return busy time of the pool in nanoseconds
+	 */
+	public long getBusyTime() {
+		return sum(BUSY);
+	}
+
+	@Override
+	public double getUtilization() {
+		double[] utilization = getWorkerUtilization();
+		double sum = 0;
+		for (double worker : utilization) {
+			sum += worker;
+		}
+		return utilization.length == 0 ? 0 : sum / utilization.length;
+	}
+
+	/**
+	 * Returns the histogram of time work requests waited in the queue
+	 *
+	 * @return histogram of wait times
+	 */
+	public LatencyHistogram getWait() {
+		return wait;
+	}
+
+	/**
+	 * Returns the histogram of time work requests in one lane waited in the queue
+	 *
+	 * @param priority the lane
+	 * @return histogram of wait times for the lane
+	 */
+	public LatencyHistogram getWait(WorkQueue.Priority priority) {
+		return lanes[priority.ordinal()];
+	}
+
+	/**
+	 * Returns the histogram of time work requests took to run
+	 *
+	 * @return histogram of run times
+	 */
+	public LatencyHistogram getRun() {
+		return run;
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server
+	 *
+	 * @param id name used to tell work queues apart
+	 * @throws JMException if unable to register the MBean
+	 */
+	public synchronized void register(String id) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		name = new ObjectName("WorkQueue:type=WorkQueueMetrics,name=" + ObjectName.quote(id));
+		server.registerMBean(this, name);
+	}
+
+	/**
+	 * Removes these metrics from the platform MBean server if they were registered
+	 */
+	public synchronized void unregister() {
+		if (name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			}
+			catch (JMException e) {
+				System.err.printf("Unable to unregister %s due to error: %s", name.toString(), e.toString());
+			}
+			name = null;
+		}
+	}
+
+	/**
+	 * Starts timing work requests, then samples the queue depth and rewrites the
+	 * JSON file every period until stopped
+	 *
+	 * @param path the file path to use
+	 * @param period milliseconds between writes
+	 */
+	public synchronized void startDump(Path path, long period) {
+		stopDump(null);
+		enable();
+		timer = new Timer("WorkQueueMetrics", true);
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				sample();
+				try {
+					writeJson(path);
+				}
+				catch (IOException e) {
+					System.err.printf("File %s has an error caused by %s", path.toString(), e.toString());
+				}
+			}
+		}, 0, period);
+	}
+
+	/**
+	 * Stops writing the JSON file, and writes it one last time if a path is given
+	 *
+	 * @param path the file path to use, or null to skip the last write
+	 */
+	public synchronized void stopDump(Path path) {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+		if (path != null) {
+			sample();
+			try {
+				writeJson(path);
+			}
+			catch (IOException e) {
+				System.err.printf("File %s has an error caused by %s", path.toString(), e.toString());
+			}
+		}
+	}
+
+	/** Adds the current queue depth to the history */
+	private void sample() {
+		long depth = getQueueDepth();
+		synchronized (history) {
+			history.addLast(new long[] { System.currentTimeMillis(), depth });
+			if (history.size() > HISTORY) {
+				history.removeFirst();
+			}
+		}
+	}
+
+	/**
+	 * Writes the metrics as a pretty JSON object to file
+	 *
+	 * @param path the file path to use
+	 * @throws IOException if unable to write the file
+	 */
+	public synchronized void writeJson(Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writeJson(writer);
+		}
+	}
+
+	/**
+	 * Writes the metrics as a pretty JSON object
+	 *
+	 * @param writer the writer to use
+	 * @throws IOException if unable to write
+	 */
+	public void writeJson(Writer writer) throws IOException {
+		writer.write("{\n");
+		writer.write(String.format("\t\"threads\": %d,\n", getThreads()));
+		writer.write(String.format("\t\"submitted\": %d,\n", getSubmitted()));
+		writer.write(String.format("\t\"completed\": %d,\n", getCompleted()));
+		writer.write(String.format("\t\"exceptions\": %d,\n", getExceptions()));
+		writer.write(String.format("\t\"timeouts\": %d,\n", getTimeouts()));
+		writer.write(String.format("\t\"depth\": %d,\n", getQueueDepth()));
+		writer.write(String.format("\t\"maxDepth\": %d,\n", getMaxQueueDepth()));
+		writeHistogram("wait", wait, writer);
+		for (WorkQueue.Priority priority : WorkQueue.Priority.values()) {
+			writeHistogram(priority.name().toLowerCase() + "Wait", getWait(priority), writer);
+		}
+		writeHistogram("run", run, writer);
+		writer.write(String.format("\t\"utilization\": %.4f,\n", getUtilization()));
+		writer.write("\t\"workers\": [");
+		double[] utilization = getWorkerUtilization();
+		for (int i = 0; i < utilization.length; i++) {
+			writer.write(i == 0 ? "\n" : ",\n");
+			writer.write(String.format("\t\t%.4f", utilization[i]));
+		}
+		writer.write("\n\t],\n");
+		writer.write("\t\"history\": [");
+		synchronized (history) {
+			Iterator<long[]> iterator = history.iterator();
+			while (iterator.hasNext()) {
+				long[] sample = iterator.next();
+				writer.write(String.format("\n\t\t{ \"time\": %d, \"depth\": %d }", sample[0], sample[1]));
+				if (iterator.hasNext()) {
+					writer.write(",");
+				}
+			}
+		}
+		writer.write("\n\t]\n");
+		writer.write("}");
+	}
+
+	/**
+	 * Writes a latency histogram as a nested JSON object followed by a comma
+	 *
+	 * @param key the name of the histogram
+	 * @param histogram the histogram to write
+	 * @param writer the writer to use
+	 * @throws IOException if unable to write
+	 */
+	static void writeHistogram(String key, LatencyHistogram histogram, Writer writer) throws IOException {
+		writer.write(String.format("\t\"%s\": {\n", key));
+		writer.write(String.format("\t\t\"count\": %d,\n", histogram.getCount()));
+		writer.write(String.format("\t\t\"mean\": %.4f,\n", histogram.getMean()));
+		writer.write(String.format("\t\t\"p50\": %.4f,\n", histogram.getPercentile(0.5)));
+		writer.write(String.format("\t\t\"p90\": %.4f,\n", histogram.getPercentile(0.9)));
+		writer.write(String.format("\t\t\"p99\": %.4f,\n", histogram.getPercentile(0.99)));
+		writer.write(String.format("\t\t\"max\": %.4f\n", histogram.getMax()));
+		writer.write("\t},\n");
+	}
+}
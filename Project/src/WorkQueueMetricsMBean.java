@@ -0,0 +1,116 @@
+/**
+ * Management interface exposing the metrics of a {@link WorkQueue} over JMX.
+ *
+ * @author EricChen
+ * @see WorkQueueMetrics
+ */
+public interface WorkQueueMetricsMBean {
+
+	/**
+	 * Returns the number of worker threads
+	 *
+	 * @return number of worker threads
+	 */
+	public int getThreads();
+
+	/**
+	 * Returns the number of work requests waiting to be started
+	 *
+	 * @return number of work requests waiting in the queue
+	 */
+	public long getQueueDepth();
+
+	/**
+	 * Returns the largest number of work requests seen waiting at once, checked
+	 * whenever the queue depth is read
+	 *
+	 * @return largest queue depth seen
+	 */
+	public long getMaxQueueDepth();
+
+	/**
+	 * Returns the number of work requests added to the queue
+	 *
+	 * @return number of work requests submitted
+	 */
+	public long getSubmitted();
+
+	/**
+	 * Returns the number of work requests that have finished running
+	 *
+	 * @return number of work requests completed
+	 */
+	public long getCompleted();
+
+	/**
+	 * Returns the number of work requests that threw an exception, including the
+	 * ones caught by their future or reported by the task itself
+	 *
+	 * @return number of exceptions
+	 */
+	public long getExceptions();
+
+	/**
+	 * Returns the number of searches that ran out of time and returned the results found so far
+	 *
+	 * @return number of timeouts
+	 */
+	public long getTimeouts();
+
+	/**
+	 * Returns the mean time work requests waited in the queue
+	 *
+	 * @return mean wait in milliseconds
+	 */
+	public double getWaitMean();
+
+	/**
+	 * Returns the estimated 99th percentile of the time work requests waited in the queue
+	 *
+	 * @return 99th percentile wait in milliseconds
+	 */
+	public double getWaitP99();
+
+	/**
+	 * Returns the estimated 99th percentile of the time interactive work requests waited in the queue
+	 *
+	 * @return 99th percentile interactive wait in milliseconds
+	 */
+	public double getInteractiveWaitP99();
+
+	/**
+	 * Returns the estimated 99th percentile of the time bulk work requests waited in the queue
+	 *
+	 * @return 99th percentile bulk wait in milliseconds
+	 */
+	public double getBulkWaitP99();
+
+	/**
+	 * Returns the mean time work requests took to run
+	 *
+	 * @return mean run time in milliseconds
+	 */
+	public double getRunMean();
+
+	/**
+	 * Returns the estimated 99th percentile of the time work requests took to run
+	 *
+	 * @return 99th percentile run time in milliseconds
+	 */
+	public double getRunP99();
+
+	/**
+	 * Returns the fraction of time each worker spent running work requests since
+	 * work requests started being timed
+	 *
+	 * @return busy fraction of each worker, between 0 and 1, or 0 before timing starts
+	 */
+	public double[] getWorkerUtilization();
+
+	/**
+	 * Returns the fraction of time all workers spent running work requests
+	 *
+	 * @return busy fraction of the pool, between 0 and 1
+	 */
+	public double getUtilization();
+}